@@ -29,4 +29,29 @@ public class StrawGlobals {
     public static final int minVersion = 6;
     public static final int bufferSize = 2097152;
     public static final String CHR_ALL = "All";
+    // read-ahead for full scans; the memory cap is in compressed bytes
+    public static int prefetchWindow = 4;
+    public static long prefetchMemoryCap = 64L * 1024 * 1024;
+    // blocks adjacent in the file (up to maxGap bytes apart) are fetched with one read of at most this size
+    public static int readAheadBufferSize = 8 * 1024 * 1024;
+    public static int readAheadMaxGap = 64 * 1024;
+    // sizes of the shared pools in ParallelizationTools; only read when a pool is first used
+    public static int cpuParallelism = Runtime.getRuntime().availableProcessors();
+    public static int ioParallelism = 2 * Runtime.getRuntime().availableProcessors();
+    // on Java 21+, fetch region blocks on virtual threads, limited by compressed bytes in flight
+    // (read when the first such load runs) and by the IOConcurrencyController of the storage
+    public static boolean useVirtualThreadsForIO = false;
+    public static long maxInFlightBlockBytes = 256L * 1024 * 1024;
+    // bounds for the adaptive number of concurrent block reads per storage backend
+    public static int minIOConcurrency = 1;
+    public static int initialIOConcurrency = 8;
+    public static int maxIOConcurrency = 256;
+    // compressed bytes read but not yet decoded in a region load (backpressure on the read stage)
+    public static long pipelineBufferBytes = 128L * 1024 * 1024;
+    // byte budget shared by all caches, enforced by MemoryGovernor (0 = unlimited); with a pressure fraction > 0,
+    // caches are halved whenever a heap pool is still above that fraction of its max after a GC
+    public static long memoryBudget = 0;
+    public static double heapPressureFraction = 0;
+    // where block summary indexes are saved and reused (null = not saved, built again in every session)
+    public static String blockSummaryDirectory = null;
 }
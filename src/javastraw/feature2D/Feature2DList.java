@@ -26,14 +26,13 @@ package javastraw.feature2D;
 
 import javastraw.reader.basics.Chromosome;
 import javastraw.tools.HiCFileTools;
+import javastraw.tools.ParallelizationTools;
 
 import java.awt.*;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.List;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * List of two-dimensional features.  Hashtable for each chromosome for quick viewing.
@@ -149,19 +148,11 @@ public class Feature2DList {
     public void parallelizedProcessLists(Feature2DFunction featureFunction) {
         List<String> keys = new ArrayList<>(featureList.keySet());
         Collections.sort(keys);
-        ExecutorService executor = Executors.newFixedThreadPool(keys.size());
+        List<Runnable> workers = new ArrayList<>(keys.size());
         for (String key : keys) {
-            Runnable worker = new Runnable() {
-                @Override
-                public void run() {
-                    featureFunction.process(key, featureList.get(key));
-                }
-            };
-            executor.execute(worker);
-        }
-        executor.shutdown();
-        while (!executor.isTerminated()) {
+            workers.add(() -> featureFunction.process(key, featureList.get(key)));
         }
+        ParallelizationTools.invokeAll(workers);
     }
 
     /**
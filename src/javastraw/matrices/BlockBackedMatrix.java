@@ -0,0 +1,239 @@
+package javastraw.matrices;
+
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactFilter;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.datastructures.ComputeOnceCache;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.NormalizationType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Read-only view of a region of a MatrixZoomData that is never materialized as a whole.
+ * Entry (row, col) is bin (binXStart + row, binYStart + col), as in HiCFileTools.extractLocalBoundedRegion.
+ * <p>
+ * Entries are served from square tiles of tileSize bins, filled from the blocks they touch through the
+ * zoom data's block cache; only the last maxTiles tiles are kept, and their bytes count against the
+ * MemoryGovernor budget. The lower/upper values are the 5th/95th percentiles (zeros included, as for
+ * InMemoryMatrix), estimated in one streaming pass over the region.
+ */
+public class BlockBackedMatrix implements BasicMatrix {
+
+    private static final int SAMPLE_SIZE = 100000;
+
+    private final MatrixZoomData zd;
+    private final NormalizationType norm;
+    private final long binXStart, binYStart;
+    private final int numRows, numCols;
+    private final boolean fillUnderDiagonal;
+    private final int tileSize;
+    private final int numTileCols;
+    private final ComputeOnceCache<Long, float[]> tiles;
+    private float lowerValue = Float.NaN;
+    private float upperValue = Float.NaN;
+
+    public BlockBackedMatrix(MatrixZoomData zd, NormalizationType norm, long binXStart, long binYStart,
+                             int numRows, int numCols, boolean fillUnderDiagonal) {
+        this(zd, norm, binXStart, binYStart, numRows, numCols, fillUnderDiagonal, 256, 64);
+    }
+
+    public BlockBackedMatrix(MatrixZoomData zd, NormalizationType norm, long binXStart, long binYStart,
+                             int numRows, int numCols, boolean fillUnderDiagonal, int tileSize, int maxTiles) {
+        this.zd = zd;
+        this.norm = norm;
+        this.binXStart = binXStart;
+        this.binYStart = binYStart;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.fillUnderDiagonal = fillUnderDiagonal;
+        this.tileSize = tileSize;
+        this.numTileCols = (numCols + tileSize - 1) / tileSize;
+        this.tiles = new ComputeOnceCache<>(maxTiles, true, 1);
+    }
+
+    /**
+     * Whole chromosome view of an intra-chromosomal map, filled under the diagonal
+     */
+    public static BlockBackedMatrix forChromosome(MatrixZoomData zd, NormalizationType norm) {
+        int n = (int) (zd.getChr1().getLength() / zd.getBinSize() + 1);
+        return new BlockBackedMatrix(zd, norm, 0, 0, n, n, true);
+    }
+
+    @Override
+    public float getEntry(int row, int col) {
+        if (row < 0 || row >= numRows || col < 0 || col >= numCols) return Float.NaN;
+        int tileRow = row / tileSize;
+        int tileCol = col / tileSize;
+        return getTile(tileRow, tileCol)[(row - tileRow * tileSize) * tileSize + (col - tileCol * tileSize)];
+    }
+
+    public float[] getRow(int row) {
+        return getRegion(row, 0, 1, numCols);
+    }
+
+    /**
+     * @return the numRowsRegion x numColsRegion block starting at (row0, col0), row-major;
+     * NaN outside the view
+     */
+    public float[] getRegion(int row0, int col0, int numRowsRegion, int numColsRegion) {
+        float[] result = new float[numRowsRegion * numColsRegion];
+        Arrays.fill(result, Float.NaN);
+        int rowStart = Math.max(row0, 0), rowEnd = Math.min(row0 + numRowsRegion, numRows);
+        int colStart = Math.max(col0, 0), colEnd = Math.min(col0 + numColsRegion, numCols);
+        for (int tileRow = rowStart / tileSize; tileRow * tileSize < rowEnd; tileRow++) {
+            for (int tileCol = colStart / tileSize; tileCol * tileSize < colEnd; tileCol++) {
+                float[] tile = getTile(tileRow, tileCol);
+                int r0 = Math.max(rowStart, tileRow * tileSize), r1 = Math.min(rowEnd, (tileRow + 1) * tileSize);
+                int c0 = Math.max(colStart, tileCol * tileSize), c1 = Math.min(colEnd, (tileCol + 1) * tileSize);
+                for (int r = r0; r < r1; r++) {
+                    System.arraycopy(tile, (r - tileRow * tileSize) * tileSize + (c0 - tileCol * tileSize),
+                            result, (r - row0) * numColsRegion + (c0 - col0), c1 - c0);
+                }
+            }
+        }
+        return result;
+    }
+
+    private float[] getTile(int tileRow, int tileCol) {
+        return tiles.get((long) tileRow * numTileCols + tileCol, k -> loadTile(tileRow, tileCol));
+    }
+
+    /**
+     * Tiles on the last row or column of tiles only query the bins inside the view
+     */
+    private float[] loadTile(int tileRow, int tileCol) {
+        float[] tile = new float[tileSize * tileSize];
+        long x0 = binXStart + (long) tileRow * tileSize;
+        long y0 = binYStart + (long) tileCol * tileSize;
+        int height = Math.min(tileSize, numRows - tileRow * tileSize);
+        int width = Math.min(tileSize, numCols - tileCol * tileSize);
+        List<Block> blocks = zd.getNormalizedBlocksOverlapping(x0, y0, x0 + height - 1, y0 + width - 1,
+                norm, fillUnderDiagonal);
+        for (Block b : blocks) {
+            if (b == null) continue;
+            for (ContactRecord rec : b.getContactRecords()) {
+                setIfInTile(tile, rec.getBinX() - x0, rec.getBinY() - y0, height, width, rec.getCounts());
+                if (fillUnderDiagonal) {
+                    setIfInTile(tile, rec.getBinY() - x0, rec.getBinX() - y0, height, width, rec.getCounts());
+                }
+            }
+        }
+        return tile;
+    }
+
+    private void setIfInTile(float[] tile, long r, long c, int height, int width, float value) {
+        if (r >= 0 && r < height && c >= 0 && c < width) {
+            tile[(int) (r * tileSize + c)] = value;
+        }
+    }
+
+    @Override
+    public int getRowDimension() {
+        return numRows;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return numCols;
+    }
+
+    @Override
+    public synchronized float getLowerValue() {
+        if (Float.isNaN(lowerValue)) {
+            estimateBounds();
+        }
+        return lowerValue;
+    }
+
+    @Override
+    public synchronized float getUpperValue() {
+        if (Float.isNaN(upperValue)) {
+            estimateBounds();
+        }
+        return upperValue;
+    }
+
+    /**
+     * The view is read-only
+     */
+    @Override
+    public void setEntry(int i, int j, float corr) {
+        throw new UnsupportedOperationException("BlockBackedMatrix is read-only");
+    }
+
+    /**
+     * Streams over the region one strip of block rows at a time, keeping a uniform sample of the
+     * nonzero entries; the rest of the entries are zeros
+     */
+    private void estimateBounds() {
+        float[] sample = new float[SAMPLE_SIZE];
+        long numNonZero = 0;
+        Random random = new Random(0);
+        long binXEnd = binXStart + numRows - 1;
+        long binYEnd = binYStart + numCols - 1;
+        int stripHeight = Math.max(zd.getBlockBinCount(), 1);
+
+        for (long x0 = binXStart; x0 <= binXEnd; x0 += stripHeight) {
+            long x1 = Math.min(x0 + stripHeight - 1, binXEnd);
+            ContactFilter filter = new ContactFilter(x0, binYStart, x1, binYEnd, fillUnderDiagonal);
+            for (Block b : zd.getNormalizedBlocksOverlapping(filter, norm)) {
+                if (b == null) continue;
+                for (ContactRecord rec : b.getContactRecords()) {
+                    int numEntries = 0;
+                    if (rec.getBinX() >= x0 && rec.getBinX() <= x1
+                            && rec.getBinY() >= binYStart && rec.getBinY() <= binYEnd) {
+                        numEntries++;
+                    }
+                    if (fillUnderDiagonal && rec.getBinX() != rec.getBinY()
+                            && rec.getBinY() >= x0 && rec.getBinY() <= x1
+                            && rec.getBinX() >= binYStart && rec.getBinX() <= binYEnd) {
+                        numEntries++;
+                    }
+                    for (int i = 0; i < numEntries; i++) {
+                        if (rec.getCounts() == 0) continue;
+                        if (numNonZero < SAMPLE_SIZE) {
+                            sample[(int) numNonZero] = rec.getCounts();
+                        } else {
+                            long j = (long) (random.nextDouble() * (numNonZero + 1));
+                            if (j < SAMPLE_SIZE) sample[(int) j] = rec.getCounts();
+                        }
+                        numNonZero++;
+                    }
+                }
+            }
+        }
+
+        int sampleSize = (int) Math.min(numNonZero, SAMPLE_SIZE);
+        float[] sorted = Arrays.copyOf(sample, sampleSize);
+        Arrays.sort(sorted);
+        long numZeros = Math.max((long) numRows * numCols - numNonZero, 0);
+        lowerValue = percentile(sorted, numNonZero, numZeros, 0.05);
+        upperValue = percentile(sorted, numNonZero, numZeros, 0.95);
+    }
+
+    /**
+     * Quantile of the sampled nonzero values (each standing for numNonZero / sample length entries)
+     * together with numZeros zeros
+     */
+    private static float percentile(float[] sorted, long numNonZero, long numZeros, double q) {
+        double total = (double) numNonZero + numZeros;
+        if (total == 0) return 0;
+        double target = q * total;
+        double weight = sorted.length == 0 ? 0 : (double) numNonZero / sorted.length;
+        double seen = 0;
+        boolean zerosCounted = false;
+        for (float value : sorted) {
+            if (!zerosCounted && value > 0) {
+                seen += numZeros;
+                zerosCounted = true;
+                if (seen >= target) return 0;
+            }
+            seen += weight;
+            if (seen >= target) return value;
+        }
+        return zerosCounted || numZeros == 0 ? sorted[sorted.length - 1] : 0;
+    }
+}
@@ -26,13 +26,13 @@ package javastraw.reader;
 
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
+import javastraw.reader.datastructures.ComputeOnceCache;
 import javastraw.reader.expected.ExpectedValueFunction;
 import javastraw.reader.mzd.Matrix;
 import javastraw.reader.norm.NormalizationVector;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationHandler;
 import javastraw.reader.type.NormalizationType;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.io.IOException;
 import java.util.*;
@@ -48,10 +48,13 @@ public class Dataset {
     public static final String NVI_INDEX = "nviIndex";
     public static final String NVI_LENGTH = "nviLength";
 
-    private final Map<String, Matrix> matrices = new HashMap<>(625);
+    // not governed: a matrix only holds header data, and evicting it would drop its block caches
+    private final ComputeOnceCache<String, Matrix> matrices = new ComputeOnceCache<>(0, false, 1, false);
     private final DatasetReader reader;
-    private final LRUCache<String, double[]> eigenvectorCache;
-    private final LRUCache<String, NormalizationVector> normalizationVectorCache;
+    private final ComputeOnceCache<String, double[]> eigenvectorCache;
+    private final ComputeOnceCache<String, NormalizationVector> normalizationVectorCache;
+    private final ComputeOnceCache<String, ExpectedValueFunction> correctedExpectedCache =
+            new ComputeOnceCache<>(0, false, 4);
     private final String restrictionEnzyme = null;
     protected String genomeId;
     protected List<HiCZoom> bpZooms, dynamicZooms, fragZooms;
@@ -66,8 +69,8 @@ public class Dataset {
 
     public Dataset(DatasetReader reader) {
         this.reader = reader;
-        eigenvectorCache = new LRUCache<>(25);
-        normalizationVectorCache = new LRUCache<>(25);
+        eigenvectorCache = new ComputeOnceCache<>(25, true, 8);
+        normalizationVectorCache = new ComputeOnceCache<>(25, true);
         normalizationTypes = new ArrayList<>();
     }
 
@@ -82,6 +85,7 @@ public class Dataset {
         }
         eigenvectorCache.clear();
         normalizationVectorCache.clear();
+        correctedExpectedCache.clear();
         matrices.clear();
     }
 
@@ -107,19 +111,18 @@ public class Dataset {
 
         //System.out.println("from dataset");
         String key = Matrix.generateKey(chr1, chr2);
-        Matrix m = matrices.get(key);
+        if (reader == null) return matrices.getIfPresent(key);
 
-        if (m == null && reader != null) {
+        // concurrent requests for the same matrix wait for a single read; failures are retried next time
+        return matrices.get(key, k -> {
             try {
-                m = reader.readMatrix(key, specificResolution);
-                matrices.put(key, m);
+                return reader.readMatrix(k, specificResolution);
             } catch (Exception e) {
                 System.err.println("Error fetching matrix for: " + chr1.getName() + "-" + chr2.getName());
                 e.printStackTrace();
+                return null;
             }
-        }
-
-        return m;
+        });
     }
 
     public void addDynamicResolution(int newRes) {
@@ -214,13 +217,12 @@ public class Dataset {
     private ExpectedValueFunction getCorrectedVersionOfExpectedVector(HiCZoom zoom, NormalizationType type,
                                                                       int window) {
         String key = ExpectedValueFunction.getKey(zoom, type, true, window);
-        if (!expectedValueFunctionMap.containsKey(key)) {
+        return correctedExpectedCache.get(key, k -> {
             String normalKey = ExpectedValueFunction.getKey(zoom, type, false, window);
             ExpectedValueFunction normalEVF = expectedValueFunctionMap.get(normalKey);
             if (normalEVF == null) return null;
-            expectedValueFunctionMap.put(key, normalEVF.getCorrectedVersion(window));
-        }
-        return expectedValueFunctionMap.get(key);
+            return normalEVF.getCorrectedVersion(window);
+        });
     }
 
     public ExpectedValueFunction getExpectedValuesOrExit(HiCZoom zoom, NormalizationType type, boolean isIntra, boolean getCorrectedVersion) {
@@ -371,16 +373,15 @@ public class Dataset {
 
         if (type.equals(NormalizationHandler.NONE)) {
             return null;
-        }  else if (!normalizationVectorCache.containsKey(key)) {
+        }
+
+        return normalizationVectorCache.get(key, k -> {
             try {
-                NormalizationVector nv = reader.readNormalizationVector(type, chrIdx, zoom.getUnit(), zoom.getBinSize());
-                normalizationVectorCache.put(key, nv);
+                return reader.readNormalizationVector(type, chrIdx, zoom.getUnit(), zoom.getBinSize());
             } catch (IOException e) {
-                normalizationVectorCache.put(key, null);
+                return null;
             }
-        }
-
-        return normalizationVectorCache.get(key);
+        });
     }
 
     public NormalizationVector getPartNormalizationVector(int chrIdx, HiCZoom zoom, NormalizationType type, int bound1, int bound2) {
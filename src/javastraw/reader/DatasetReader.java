@@ -25,6 +25,7 @@
 package javastraw.reader;
 
 import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactFilter;
 import javastraw.reader.block.IndexEntry;
 import javastraw.reader.datastructures.ListOfDoubleArrays;
 import javastraw.reader.mzd.Matrix;
@@ -50,6 +51,18 @@ public interface DatasetReader {
                               int chr1Index, int chr2Index, HiCZoom zoom,
                               IndexEntry idx) throws IOException;
 
+    Block readNormalizedBlock(int blockNumber, String zdKey, NormalizationType no,
+                              int chr1Index, int chr2Index, HiCZoom zoom,
+                              IndexEntry idx, ContactFilter filter) throws IOException;
+
+    /**
+     * Same as readNormalizedBlock, for a block whose compressed bytes were already read
+     * (e.g. as part of a larger sequential read); null bytes mean the block does not exist
+     */
+    Block decodeNormalizedBlock(int blockNumber, String zdKey, NormalizationType no,
+                                int chr1Index, int chr2Index, HiCZoom zoom,
+                                byte[] compressedBytes, ContactFilter filter) throws IOException;
+
     NormalizationVector readNormalizationVector(NormalizationType type, int chrIdx, HiCZoom.HiCUnit unit, int binSize) throws IOException;
 
     NormalizationVector readNormalizationVectorPart(NormalizationType type, int chrIdx, HiCZoom.HiCUnit unit, int binSize, int bound1, int bound2) throws IOException;
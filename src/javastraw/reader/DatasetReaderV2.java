@@ -32,6 +32,7 @@ import javastraw.igv.ParsingUtils;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactFilter;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.block.IndexEntry;
 import javastraw.reader.block.LargeIndexEntry;
@@ -584,11 +585,26 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
     public Block readNormalizedBlock(int blockNumber, String zdKey, NormalizationType no,
                                      int chr1Index, int chr2Index, HiCZoom zoom,
                                      IndexEntry idx) throws IOException {
+        return readNormalizedBlock(blockNumber, zdKey, no, chr1Index, chr2Index, zoom, idx, null);
+    }
+
+    @Override
+    public Block readNormalizedBlock(int blockNumber, String zdKey, NormalizationType no,
+                                     int chr1Index, int chr2Index, HiCZoom zoom,
+                                     IndexEntry idx, ContactFilter filter) throws IOException {
+        byte[] compressedBytes = readCompressedBlock(idx);
+        return decodeNormalizedBlock(blockNumber, zdKey, no, chr1Index, chr2Index, zoom, compressedBytes, filter);
+    }
+
+    @Override
+    public Block decodeNormalizedBlock(int blockNumber, String zdKey, NormalizationType no,
+                                       int chr1Index, int chr2Index, HiCZoom zoom,
+                                       byte[] compressedBytes, ContactFilter filter) throws IOException {
 
         if (no == null) {
             throw new IOException("Norm " + no + " is null");
         } else if (no.equals(NormalizationHandler.NONE)) {
-            return readBlock(blockNumber, zdKey, idx);
+            return decodeBlock(blockNumber, zdKey, compressedBytes, filter, true);
         } else {
             long[] timeDiffThings = new long[4];
             timeDiffThings[0] = System.currentTimeMillis();
@@ -603,7 +619,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
             ListOfDoubleArrays nv1Data = nv1.getData();
             ListOfDoubleArrays nv2Data = nv2.getData();
             timeDiffThings[1] = System.currentTimeMillis();
-            Block rawBlock = readBlock(blockNumber, zdKey, idx);
+            Block rawBlock = decodeBlock(blockNumber, zdKey, compressedBytes, filter, false);
             timeDiffThings[2] = System.currentTimeMillis();
             if (rawBlock == null) return null;
 
@@ -614,7 +630,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                 int y = rec.getBinY();
                 double denominator = nv1Data.get(x) * nv2Data.get(y);
                 float counts = (float) (rec.getCounts() / denominator);
-                if (!Float.isNaN(counts)) {
+                if (!Float.isNaN(counts) && (filter == null || filter.acceptsCount(counts))) {
                     normRecords.add(new ContactRecord(x, y, counts));
                 }
             }
@@ -624,18 +640,31 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         }
     }
 
-    private Block readBlock(int blockNumber, String zdKey, IndexEntry idx) throws IOException {
+    private byte[] readCompressedBlock(IndexEntry idx) throws IOException {
+        if (idx == null) return null;
+        long start = System.currentTimeMillis();
+        //System.out.println(" blockIndexPosition:" + idx.position);
+        byte[] compressedBytes = ReaderTools.readBlockBytes(idx, path);
+        globalTimeDiffThings[1] += (System.currentTimeMillis() - start) / 1000.0;
+        return compressedBytes;
+    }
+
+    /**
+     * @param compressedBytes block as stored in the file, or null if the block does not exist
+     * @param filter          optional; records failing its position predicates are never materialized
+     * @param filterCounts    whether the count range of the filter applies to the raw counts
+     */
+    private Block decodeBlock(int blockNumber, String zdKey, byte[] compressedBytes, ContactFilter filter,
+                              boolean filterCounts) throws IOException {
 
         long[] timeDiffThings = new long[6];
         timeDiffThings[0] = System.currentTimeMillis();
 
         Block b = null;
-        if (idx != null) {
+        if (compressedBytes != null) {
 
-            //System.out.println(" blockIndexPosition:" + idx.position);
             timeDiffThings[1] = System.currentTimeMillis();
-            byte[] compressedBytes = ReaderTools.seekAndFullyReadCompressedBytes(idx, path);
-            timeDiffThings[2] = System.currentTimeMillis();
+            timeDiffThings[2] = timeDiffThings[1];
             byte[] buffer;
 
             try {
@@ -656,7 +685,9 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                     int binX = dis.readInt();
                     int binY = dis.readInt();
                     float counts = dis.readFloat();
-                    records.add(new ContactRecord(binX, binY, counts));
+                    if (accepts(filter, filterCounts, binX, binY, counts)) {
+                        records.add(new ContactRecord(binX, binY, counts));
+                    }
                 }
             } else {
 
@@ -679,28 +710,28 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                             int rowCount = dis.readShort();
                             for (int i = 0; i < rowCount; i++) {
                                 int binY = binYOffset + dis.readShort();
-                                ReaderTools.populateContactRecordsColShort(dis, records, binXOffset, useShort, binY);
+                                populateRow(dis, records, binXOffset, useShort, true, binY, filter, filterCounts);
                             }
                         } else if (useShortBinX) { // && !useShortBinY
                             // List-of-rows representation
                             int rowCount = dis.readInt();
                             for (int i = 0; i < rowCount; i++) {
                                 int binY = binYOffset + dis.readInt();
-                                ReaderTools.populateContactRecordsColShort(dis, records, binXOffset, useShort, binY);
+                                populateRow(dis, records, binXOffset, useShort, true, binY, filter, filterCounts);
                             }
                         } else if (useShortBinY) { // && !useShortBinX
                             // List-of-rows representation
                             int rowCount = dis.readShort();
                             for (int i = 0; i < rowCount; i++) {
                                 int binY = binYOffset + dis.readShort();
-                                ReaderTools.populateContactRecordsColInt(dis, records, binXOffset, useShort, binY);
+                                populateRow(dis, records, binXOffset, useShort, false, binY, filter, filterCounts);
                             }
                         } else {
                             // List-of-rows representation
                             int rowCount = dis.readInt();
                             for (int i = 0; i < rowCount; i++) {
                                 int binY = binYOffset + dis.readInt();
-                                ReaderTools.populateContactRecordsColInt(dis, records, binXOffset, useShort, binY);
+                                populateRow(dis, records, binXOffset, useShort, false, binY, filter, filterCounts);
                             }
                         }
                         break;
@@ -718,12 +749,12 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
 
                             if (useShort) {
                                 short counts = dis.readShort();
-                                if (counts != Short.MIN_VALUE) {
+                                if (counts != Short.MIN_VALUE && accepts(filter, filterCounts, bin1, bin2, counts)) {
                                     records.add(new ContactRecord(bin1, bin2, counts));
                                 }
                             } else {
                                 float counts = dis.readFloat();
-                                if (!Float.isNaN(counts)) {
+                                if (!Float.isNaN(counts) && accepts(filter, filterCounts, bin1, bin2, counts)) {
                                     records.add(new ContactRecord(bin1, bin2, counts));
                                 }
                             }
@@ -747,4 +778,25 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         }
         return b;
     }
+
+    private static void populateRow(LittleEndianInputStream dis, List<ContactRecord> records, int binXOffset,
+                                    boolean useShort, boolean useShortBinX, int binY, ContactFilter filter,
+                                    boolean filterCounts) throws IOException {
+        if (filter == null) {
+            if (useShortBinX) {
+                ReaderTools.populateContactRecordsColShort(dis, records, binXOffset, useShort, binY);
+            } else {
+                ReaderTools.populateContactRecordsColInt(dis, records, binXOffset, useShort, binY);
+            }
+        } else if (useShortBinX) {
+            ReaderTools.populateContactRecordsColShort(dis, records, binXOffset, useShort, binY, filter, filterCounts);
+        } else {
+            ReaderTools.populateContactRecordsColInt(dis, records, binXOffset, useShort, binY, filter, filterCounts);
+        }
+    }
+
+    private static boolean accepts(ContactFilter filter, boolean filterCounts, int binX, int binY, float counts) {
+        if (filter == null) return true;
+        return filter.acceptsPosition(binX, binY) && (!filterCounts || filter.acceptsCount(counts));
+    }
 }
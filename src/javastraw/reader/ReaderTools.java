@@ -13,6 +13,7 @@ import javastraw.reader.norm.NormFactorMapReader;
 import javastraw.reader.norm.NormalizationVector;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
+import javastraw.tools.IOConcurrencyController;
 import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
@@ -24,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 public class ReaderTools {
 
@@ -64,6 +66,45 @@ public class ReaderTools {
         return compressedBytes;
     }
 
+    /**
+     * Reads the compressed bytes of one or more blocks, within the concurrency limit of the storage
+     */
+    public static byte[] readBlockBytes(IndexEntry idx, String path) throws IOException {
+        return readBlockBytes(idx, path, ReadPriority.NORMAL);
+    }
+
+    public static byte[] readBlockBytes(IndexEntry idx, String path, ReadPriority priority) throws IOException {
+        IOConcurrencyController controller = IOConcurrencyController.getController(path);
+        controller.acquire(priority);
+        return readAndRelease(controller, idx, path);
+    }
+
+    /**
+     * Reads at the token's priority (NORMAL if null)
+     *
+     * @throws CancellationException if the token is cancelled or expires before the read starts
+     */
+    public static byte[] readBlockBytes(IndexEntry idx, String path, QueryToken token) throws IOException {
+        if (token == null) return readBlockBytes(idx, path);
+        IOConcurrencyController controller = IOConcurrencyController.getController(path);
+        if (!controller.acquire(token.getPriority(), token)) {
+            throw new CancellationException("Read at " + idx.position + " skipped");
+        }
+        return readAndRelease(controller, idx, path);
+    }
+
+    private static byte[] readAndRelease(IOConcurrencyController controller, IndexEntry idx, String path) throws IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            byte[] compressedBytes = seekAndFullyReadCompressedBytes(idx, path);
+            success = true;
+            return compressedBytes;
+        } finally {
+            controller.release(System.nanoTime() - start, idx.size, success);
+        }
+    }
+
     public static List<byte[]> seekAndFullyReadLargeCompressedBytes(LargeIndexEntry idx, String path) throws IOException {
         List<byte[]> compressedBytes = new ArrayList<>();
         long counter = idx.size;
@@ -285,6 +326,50 @@ public class ReaderTools {
         }
     }
 
+    public static void populateContactRecordsColShort(LittleEndianInputStream dis, List<ContactRecord> records, int binXOffset,
+                                                      boolean useShort, int binY, ContactFilter filter,
+                                                      boolean filterCounts) throws IOException {
+        int colCount = dis.readShort();
+        if (!filter.acceptsRow(binY)) {
+            skipFully(dis, colCount * (useShort ? 4L : 6L));
+            return;
+        }
+        for (int j = 0; j < colCount; j++) {
+            int binX = binXOffset + dis.readShort();
+            float counts = useShort ? dis.readShort() : dis.readFloat();
+            if (filter.acceptsPosition(binX, binY) && (!filterCounts || filter.acceptsCount(counts))) {
+                records.add(new ContactRecord(binX, binY, counts));
+            }
+        }
+    }
+
+    public static void populateContactRecordsColInt(LittleEndianInputStream dis, List<ContactRecord> records, int binXOffset,
+                                                    boolean useShort, int binY, ContactFilter filter,
+                                                    boolean filterCounts) throws IOException {
+        int colCount = dis.readInt();
+        if (!filter.acceptsRow(binY)) {
+            skipFully(dis, colCount * (useShort ? 6L : 8L));
+            return;
+        }
+        for (int j = 0; j < colCount; j++) {
+            int binX = binXOffset + dis.readInt();
+            float counts = useShort ? dis.readShort() : dis.readFloat();
+            if (filter.acceptsPosition(binX, binY) && (!filterCounts || filter.acceptsCount(counts))) {
+                records.add(new ContactRecord(binX, binY, counts));
+            }
+        }
+    }
+
+    public static void skipFully(LittleEndianInputStream dis, long numBytes) throws IOException {
+        while (numBytes > 0) {
+            long skipped = dis.skip(numBytes);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of block while skipping " + numBytes + " bytes");
+            }
+            numBytes -= skipped;
+        }
+    }
+
     public static byte[] decompress(byte[] compressedBytes) {
         CompressionUtils compressionUtils = new CompressionUtils();
         return compressionUtils.decompress(compressedBytes);
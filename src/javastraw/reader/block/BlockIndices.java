@@ -27,10 +27,7 @@ package javastraw.reader.block;
 import htsjdk.tribble.util.LittleEndianInputStream;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public class BlockIndices {
     protected final Map<Integer, IndexEntry> blockIndices;
@@ -54,6 +51,17 @@ public class BlockIndices {
         return new ArrayList<>(blockIndices.keySet());
     }
 
+    /**
+     * @return block numbers sorted by their position in the file, so that a full scan reads sequentially
+     */
+    public List<Integer> getBlockNumbersInFileOrder() {
+        List<Integer> blockNumbers = getBlockNumbers();
+        if (blockNumbers != null) {
+            blockNumbers.sort(Comparator.comparingLong(num -> blockIndices.get(num).position));
+        }
+        return blockNumbers;
+    }
+
     public Integer getBlockSize(int num) {
         if (blockIndices.containsKey(num)) {
             return blockIndices.get(num).size;
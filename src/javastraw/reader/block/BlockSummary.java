@@ -0,0 +1,96 @@
+package javastraw.reader.block;
+
+import java.util.List;
+
+/**
+ * Coarse statistics of one decoded block: number of records, sum and max of the counts, and the
+ * inclusive bin extent [minBinX, maxBinX] x [minBinY, maxBinY] occupied by the records.
+ * An empty block has no extent (min > max).
+ */
+public class BlockSummary {
+
+    private final int numRecords;
+    private final double sum;
+    private final float max;
+    private final int minBinX, maxBinX, minBinY, maxBinY;
+
+    public BlockSummary(int numRecords, double sum, float max, int minBinX, int maxBinX, int minBinY, int maxBinY) {
+        this.numRecords = numRecords;
+        this.sum = sum;
+        this.max = max;
+        this.minBinX = minBinX;
+        this.maxBinX = maxBinX;
+        this.minBinY = minBinY;
+        this.maxBinY = maxBinY;
+    }
+
+    public static BlockSummary of(Block block) {
+        List<ContactRecord> records = block == null ? null : block.getContactRecords();
+        if (records == null || records.isEmpty()) {
+            return new BlockSummary(0, 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE, Integer.MIN_VALUE);
+        }
+        double sum = 0;
+        float max = Float.NEGATIVE_INFINITY;
+        int minBinX = Integer.MAX_VALUE, maxBinX = Integer.MIN_VALUE;
+        int minBinY = Integer.MAX_VALUE, maxBinY = Integer.MIN_VALUE;
+        for (ContactRecord record : records) {
+            float counts = record.getCounts();
+            sum += counts;
+            if (counts > max) max = counts;
+            minBinX = Math.min(minBinX, record.getBinX());
+            maxBinX = Math.max(maxBinX, record.getBinX());
+            minBinY = Math.min(minBinY, record.getBinY());
+            maxBinY = Math.max(maxBinY, record.getBinY());
+        }
+        return new BlockSummary(records.size(), sum, max, minBinX, maxBinX, minBinY, maxBinY);
+    }
+
+    public boolean isEmpty() {
+        return numRecords == 0;
+    }
+
+    /**
+     * @return false if no record of the block can pass the filter's rectangle (or its transpose)
+     * and minimum count, so the block need not be read
+     */
+    public boolean mayPass(ContactFilter filter) {
+        if (isEmpty()) return false;
+        if (max < filter.getMinCount()) return false;
+        if (overlaps(filter.getBinX1(), filter.getBinX2(), filter.getBinY1(), filter.getBinY2())) return true;
+        return filter.getIncludeTranspose()
+                && overlaps(filter.getBinY1(), filter.getBinY2(), filter.getBinX1(), filter.getBinX2());
+    }
+
+    private boolean overlaps(long binX1, long binX2, long binY1, long binY2) {
+        return minBinX <= binX2 && maxBinX >= binX1 && minBinY <= binY2 && maxBinY >= binY1;
+    }
+
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    public int getMinBinX() {
+        return minBinX;
+    }
+
+    public int getMaxBinX() {
+        return maxBinX;
+    }
+
+    public int getMinBinY() {
+        return minBinY;
+    }
+
+    public int getMaxBinY() {
+        return maxBinY;
+    }
+}
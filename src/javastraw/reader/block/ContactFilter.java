@@ -0,0 +1,149 @@
+package javastraw.reader.block;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Predicates that are pushed down into block decoding, so that records which would be
+ * discarded by the caller are never materialized.
+ * <p>
+ * The bin rectangle is inclusive and in record coordinates (binX, binY). If the transpose is
+ * included, a record also passes when (binY, binX) falls in the rectangle, as needed when the
+ * caller fills in the region under the diagonal.
+ * <p>
+ * Every block returned for a filter holds only records that pass it. Filters with count, distance or
+ * mask predicates are applied while decoding; a filter that just selects a rectangle loads (and
+ * caches) whole blocks, which are then clipped to the rectangle, see isPositionOnly.
+ */
+public class ContactFilter {
+
+    private final long binX1, binY1, binX2, binY2;
+    private final boolean includeTranspose;
+    private float minCount = Float.NEGATIVE_INFINITY;
+    private float maxCount = Float.POSITIVE_INFINITY;
+    private long minDistance = 0;
+    private long maxDistance = Long.MAX_VALUE;
+    private BitSet maskedBins = null;
+
+    public ContactFilter(long binX1, long binY1, long binX2, long binY2, boolean includeTranspose) {
+        this.binX1 = binX1;
+        this.binY1 = binY1;
+        this.binX2 = binX2;
+        this.binY2 = binY2;
+        this.includeTranspose = includeTranspose;
+    }
+
+    /**
+     * Keep only records with minCount <= counts <= maxCount (after normalization)
+     */
+    public ContactFilter setCountRange(float minCount, float maxCount) {
+        this.minCount = minCount;
+        this.maxCount = maxCount;
+        return this;
+    }
+
+    /**
+     * Keep only records with minDistance <= |binX - binY| <= maxDistance
+     */
+    public ContactFilter setDistanceRange(long minDistance, long maxDistance) {
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    /**
+     * Drop every record whose row or column is set in the mask
+     */
+    public ContactFilter setMaskedBins(BitSet maskedBins) {
+        this.maskedBins = maskedBins;
+        return this;
+    }
+
+    public long getBinX1() {
+        return binX1;
+    }
+
+    public long getBinY1() {
+        return binY1;
+    }
+
+    public long getBinX2() {
+        return binX2;
+    }
+
+    public long getBinY2() {
+        return binY2;
+    }
+
+    public boolean getIncludeTranspose() {
+        return includeTranspose;
+    }
+
+    public long getMinDistance() {
+        return minDistance;
+    }
+
+    public long getMaxDistance() {
+        return maxDistance;
+    }
+
+    public float getMinCount() {
+        return minCount;
+    }
+
+    public boolean hasCountRange() {
+        return minCount > Float.NEGATIVE_INFINITY || maxCount < Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return true if the filter only selects the rectangle (and its transpose); whole blocks are then
+     * decoded and cached, and clipped to the rectangle before they are returned
+     */
+    public boolean isPositionOnly() {
+        return !hasCountRange() && minDistance == 0 && maxDistance == Long.MAX_VALUE && maskedBins == null;
+    }
+
+    /**
+     * @return false if no record with this binY can pass the filter, so the whole row can be skipped
+     */
+    public boolean acceptsRow(int binY) {
+        if (isMasked(binY)) return false;
+        if (binY >= binY1 && binY <= binY2) return true;
+        return includeTranspose && binY >= binX1 && binY <= binX2;
+    }
+
+    public boolean acceptsPosition(int binX, int binY) {
+        long dist = Math.abs((long) binX - binY);
+        if (dist < minDistance || dist > maxDistance) return false;
+        if (isMasked(binX) || isMasked(binY)) return false;
+        if (binX >= binX1 && binX <= binX2 && binY >= binY1 && binY <= binY2) return true;
+        return includeTranspose && binY >= binX1 && binY <= binX2 && binX >= binY1 && binX <= binY2;
+    }
+
+    public boolean acceptsCount(float counts) {
+        return counts >= minCount && counts <= maxCount;
+    }
+
+    public boolean accepts(ContactRecord record) {
+        return acceptsPosition(record.getBinX(), record.getBinY()) && acceptsCount(record.getCounts());
+    }
+
+    private boolean isMasked(int bin) {
+        return maskedBins != null && bin >= 0 && maskedBins.get(bin);
+    }
+
+    /**
+     * Applies the filter to an already decoded (e.g. cached) block
+     */
+    public Block filter(Block block, String key) {
+        if (block == null) return null;
+        List<ContactRecord> records = new ArrayList<>();
+        for (ContactRecord record : block.getContactRecords()) {
+            if (accepts(record)) {
+                records.add(record);
+            }
+        }
+        return new Block(block.getNumber(), records, key);
+    }
+}
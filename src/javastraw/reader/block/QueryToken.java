@@ -0,0 +1,78 @@
+package javastraw.reader.block;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cancellation token and optional deadline for one region query.
+ * <p>
+ * Once the token is cancelled or the deadline has passed, block reads that have not started yet
+ * are dropped, including reads still waiting for a buffer or I/O slot; blocks that were already read
+ * are still decoded and cached. The token counts the dropped blocks so the query can report a partial
+ * result. The token also carries the priority class of the query's block reads.
+ * <p>
+ * A token is meant for a single query: the skipped count and the cancelled state are never reset.
+ */
+public class QueryToken {
+
+    private final long deadlineNanos;
+    private volatile boolean cancelled = false;
+    private volatile ReadPriority priority = ReadPriority.NORMAL;
+    private final AtomicInteger numSkippedBlocks = new AtomicInteger(0);
+
+    public QueryToken() {
+        this.deadlineNanos = Long.MAX_VALUE;
+    }
+
+    private QueryToken(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static QueryToken withTimeout(long timeout, TimeUnit unit) {
+        return new QueryToken(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public QueryToken setPriority(ReadPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public ReadPriority getPriority() {
+        return priority;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    public boolean shouldStop() {
+        return cancelled || isExpired();
+    }
+
+    /**
+     * @return nanoseconds until the deadline (Long.MAX_VALUE if there is none, 0 once passed)
+     */
+    public long getRemainingNanos() {
+        if (deadlineNanos == Long.MAX_VALUE) return Long.MAX_VALUE;
+        return Math.max(deadlineNanos - System.nanoTime(), 0);
+    }
+
+    public void addSkippedBlocks(int numBlocks) {
+        numSkippedBlocks.addAndGet(numBlocks);
+    }
+
+    /**
+     * @return blocks dropped so far, summed over every load that used this token
+     */
+    public int getNumSkippedBlocks() {
+        return numSkippedBlocks.get();
+    }
+}
@@ -0,0 +1,19 @@
+package javastraw.reader.block;
+
+/**
+ * Priority class of a block read; waiting interactive and normal reads are admitted by weighted fair
+ * queuing on the weights, background reads only on spare capacity, i.e. when no other read is waiting.
+ */
+public enum ReadPriority {
+    INTERACTIVE(8), NORMAL(4), BACKGROUND(1);
+
+    private final int weight;
+
+    ReadPriority(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,46 @@
+package javastraw.reader.block;
+
+import java.util.List;
+
+/**
+ * Blocks returned by a region query that may have been cancelled or run past its deadline
+ */
+public class RegionQueryResult {
+
+    public enum Status {COMPLETE, CANCELLED, TIMED_OUT}
+
+    private final List<Block> blocks;
+    private final Status status;
+    private final int numSkippedBlocks;
+
+    public RegionQueryResult(List<Block> blocks, QueryToken token) {
+        this.blocks = blocks;
+        this.numSkippedBlocks = token.getNumSkippedBlocks();
+        if (numSkippedBlocks == 0) {
+            status = Status.COMPLETE;
+        } else if (token.isCancelled()) {
+            status = Status.CANCELLED;
+        } else {
+            status = Status.TIMED_OUT;
+        }
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isComplete() {
+        return status == Status.COMPLETE;
+    }
+
+    /**
+     * @return number of overlapping blocks that were not loaded
+     */
+    public int getNumSkippedBlocks() {
+        return numSkippedBlocks;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package javastraw.reader.datastructures;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Thread-safe memo cache: the first caller for a key computes the value, concurrent callers for
+ * the same key wait for that result instead of computing it again.
+ * <p>
+ * Values are held as futures, so null is a valid result; with cacheNulls false a null result is
+ * handed to the waiting callers but computed again on the next request. With maxSize > 0 the least
+ * recently used entries are dropped. A failed computation is not cached. A loader that asks for its
+ * own key gets an IllegalStateException rather than waiting on itself.
+ * <p>
+ * Computed values count against the MemoryGovernor budget and may be evicted by it; the reload
+ * cost says how expensive a value is to compute again relative to re-reading it from disk.
+ * An ungoverned cache is neither counted nor evicted by the governor.
+ */
+public class ComputeOnceCache<K, V> implements MemoryGovernor.ManagedCache {
+
+    private final LinkedHashMap<K, CachedValue<V>> map;
+    private final boolean cacheNulls;
+    private final double reloadCost;
+    private final boolean governed;
+    private long residentBytes = 0;
+
+    public ComputeOnceCache() {
+        this(0, true);
+    }
+
+    public ComputeOnceCache(int maxSize, boolean cacheNulls) {
+        this(maxSize, cacheNulls, 1);
+    }
+
+    public ComputeOnceCache(final int maxSize, boolean cacheNulls, double reloadCost) {
+        this(maxSize, cacheNulls, reloadCost, true);
+    }
+
+    /**
+     * @param governed false for values that must stay (e.g. handles whose own caches are governed)
+     */
+    public ComputeOnceCache(final int maxSize, boolean cacheNulls, double reloadCost, boolean governed) {
+        this.cacheNulls = cacheNulls;
+        this.reloadCost = reloadCost;
+        this.map = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                if (maxSize > 0 && size() > maxSize) {
+                    release(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.governed = governed;
+        if (governed) MemoryGovernor.register(this);
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        CachedValue<V> entry;
+        boolean isOwner = false;
+        synchronized (this) {
+            entry = map.get(key);
+            if (entry == null) {
+                entry = new CachedValue<>();
+                entry.owner = Thread.currentThread();
+                map.put(key, entry);
+                isOwner = true;
+            } else if (entry.owner == Thread.currentThread()) {
+                throw new IllegalStateException("Recursive computation of " + key);
+            }
+            entry.lastAccess = MemoryGovernor.tick();
+        }
+        CompletableFuture<V> future = entry.future;
+
+        if (isOwner) {
+            V value;
+            try {
+                value = loader.apply(key);
+            } catch (RuntimeException | Error e) {
+                remove(key, entry);
+                entry.owner = null;
+                future.completeExceptionally(e);
+                throw e;
+            }
+            entry.owner = null;
+            if (value == null && !cacheNulls) {
+                remove(key, entry);
+            } else {
+                account(key, entry, value);
+            }
+            future.complete(value);
+            return value;
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * @return the value if it has already been computed, otherwise null (does not wait)
+     */
+    public synchronized V getIfPresent(K key) {
+        CachedValue<V> entry = map.get(key);
+        if (entry == null || !entry.isReady()) return null;
+        entry.lastAccess = MemoryGovernor.tick();
+        return entry.future.join();
+    }
+
+    public void put(K key, V value) {
+        CachedValue<V> entry = new CachedValue<>();
+        entry.future.complete(value);
+        entry.lastAccess = MemoryGovernor.tick();
+        synchronized (this) {
+            CachedValue<V> previous = map.put(key, entry);
+            if (previous != null) release(previous);
+        }
+        account(key, entry, value);
+    }
+
+    public synchronized boolean containsKey(K key) {
+        CachedValue<V> entry = map.get(key);
+        return entry != null && entry.isReady();
+    }
+
+    private synchronized void remove(K key, CachedValue<V> entry) {
+        if (map.remove(key, entry)) {
+            release(entry);
+        }
+    }
+
+    /**
+     * Records the size of a computed value (only if it is still cached) and tells the governor,
+     * outside of this cache's lock
+     */
+    private void account(K key, CachedValue<V> entry, V value) {
+        if (!governed) return;
+        long bytes = MemoryGovernor.estimateSize(value);
+        synchronized (this) {
+            if (map.get(key) != entry) return;
+            entry.bytes = bytes;
+            residentBytes += bytes;
+        }
+        MemoryGovernor.onGrowth(bytes);
+    }
+
+    private void release(CachedValue<V> entry) {
+        if (entry.bytes > 0) {
+            residentBytes -= entry.bytes;
+            MemoryGovernor.onRelease(entry.bytes);
+            entry.bytes = 0;
+        }
+    }
+
+    /**
+     * @return the values computed so far (not the ones still in progress)
+     */
+    public synchronized List<V> values() {
+        List<V> values = new ArrayList<>();
+        for (CachedValue<V> entry : map.values()) {
+            if (entry.isReady()) {
+                values.add(entry.future.join());
+            }
+        }
+        return values;
+    }
+
+    public synchronized void clear() {
+        for (CachedValue<V> entry : map.values()) {
+            release(entry);
+        }
+        map.clear();
+    }
+
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public synchronized long getEldestAccess() {
+        for (CachedValue<V> entry : map.values()) {
+            if (entry.isReady()) return entry.lastAccess;
+        }
+        return -1;
+    }
+
+    @Override
+    public double getReloadCost() {
+        return reloadCost;
+    }
+
+    @Override
+    public synchronized long evictEldest() {
+        Iterator<CachedValue<V>> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            CachedValue<V> entry = iterator.next();
+            if (entry.isReady()) {
+                long bytes = entry.bytes;
+                iterator.remove();
+                residentBytes -= bytes;
+                entry.bytes = 0;
+                return bytes;
+            }
+        }
+        return 0;
+    }
+
+    private static class CachedValue<V> {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        // thread computing the value, until it is done
+        volatile Thread owner;
+        long lastAccess;
+        long bytes = 0;
+
+        boolean isReady() {
+            return future.isDone() && !future.isCompletedExceptionally();
+        }
+    }
+}
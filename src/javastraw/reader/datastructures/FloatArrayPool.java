@@ -0,0 +1,38 @@
+package javastraw.reader.datastructures;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reuses float arrays of the same length (e.g. dense tiles), so that extracting many tiles of one
+ * size does not allocate a new array each time. Arrays are not cleared on acquire.
+ */
+public class FloatArrayPool {
+
+    private final Map<Integer, ArrayDeque<float[]>> free = new HashMap<>();
+    private final int maxPerLength;
+
+    public FloatArrayPool(int maxPerLength) {
+        this.maxPerLength = maxPerLength;
+    }
+
+    public synchronized float[] acquire(int length) {
+        ArrayDeque<float[]> arrays = free.get(length);
+        if (arrays == null || arrays.isEmpty()) {
+            return new float[length];
+        }
+        return arrays.pollLast();
+    }
+
+    public synchronized void release(float[] array) {
+        ArrayDeque<float[]> arrays = free.computeIfAbsent(array.length, k -> new ArrayDeque<>());
+        if (arrays.size() < maxPerLength) {
+            arrays.addLast(array);
+        }
+    }
+
+    public synchronized void clear() {
+        free.clear();
+    }
+}
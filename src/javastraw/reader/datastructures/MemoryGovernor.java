@@ -0,0 +1,234 @@
+package javastraw.reader.datastructures;
+
+import javastraw.StrawGlobals;
+import javastraw.matrices.BasicMatrix;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.mzd.BlockSummaryIndex;
+import javastraw.reader.mzd.SummedAreaTable;
+import javastraw.reader.norm.NormalizationVector;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One byte budget shared by all the caches of the library (decoded blocks, norm vectors,
+ * eigenvectors, pearsons, expected vectors, summed-area tables, tiles of block-backed matrices).
+ * Matrix handles are not governed: their zoom data's block caches are.
+ * <p>
+ * Caches register themselves and report what they add and drop. When the total goes over
+ * StrawGlobals.memoryBudget (0 = unlimited), or the heap is still above
+ * StrawGlobals.heapPressureFraction after a collection, entries are evicted across caches:
+ * the victim is the least recently used entry, with its age divided by the reload cost of its cache
+ * so that expensive results (e.g. pearsons) outlive blocks that are only a disk read away.
+ * <p>
+ * Caches must not call onGrowth while holding their own lock, since eviction locks them in turn.
+ */
+public class MemoryGovernor {
+
+    public interface ManagedCache {
+
+        long getResidentBytes();
+
+        /**
+         * @return the access time (MemoryGovernor.tick) of the least recently used entry that can be
+         * evicted, or -1 if there is none
+         */
+        long getEldestAccess();
+
+        /**
+         * @return relative cost of bringing a byte of this cache back (1 = re-read from disk)
+         */
+        double getReloadCost();
+
+        /**
+         * @return the bytes released by dropping the least recently used entry
+         */
+        long evictEldest();
+    }
+
+    private static final Set<ManagedCache> caches = Collections.newSetFromMap(new WeakHashMap<>());
+    private static final AtomicLong clock = new AtomicLong();
+    private static final AtomicLong residentBytes = new AtomicLong();
+    private static final AtomicLong evictedBytes = new AtomicLong();
+    private static final AtomicLong numHeapPressureEvents = new AtomicLong();
+    private static boolean heapListenerInstalled = false;
+
+    public static void register(ManagedCache cache) {
+        synchronized (caches) {
+            caches.add(cache);
+        }
+        if (StrawGlobals.heapPressureFraction > 0) {
+            installHeapListener();
+        }
+    }
+
+    public static long tick() {
+        return clock.incrementAndGet();
+    }
+
+    public static void onGrowth(long bytes) {
+        long total = residentBytes.addAndGet(bytes);
+        long budget = StrawGlobals.memoryBudget;
+        if (budget > 0 && total > budget) {
+            evictTo(budget);
+        }
+    }
+
+    public static void onRelease(long bytes) {
+        residentBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Evicts entries until the registered caches hold at most targetBytes
+     *
+     * @return the bytes released
+     */
+    public static synchronized long evictTo(long targetBytes) {
+        List<ManagedCache> live = getLiveCaches();
+
+        // recount, since caches that were garbage collected never reported their release
+        long total = 0;
+        for (ManagedCache cache : live) {
+            total += cache.getResidentBytes();
+        }
+        residentBytes.set(total);
+
+        long released = 0;
+        while (total - released > targetBytes) {
+            ManagedCache victim = pickVictim(live);
+            if (victim == null) break;
+            long bytes = victim.evictEldest();
+            released += bytes;
+            onRelease(bytes);
+        }
+        evictedBytes.addAndGet(released);
+        return released;
+    }
+
+    private static ManagedCache pickVictim(List<ManagedCache> live) {
+        long now = clock.get();
+        ManagedCache victim = null;
+        double bestScore = -1;
+        for (ManagedCache cache : live) {
+            long eldest = cache.getEldestAccess();
+            if (eldest < 0) continue;
+            double score = (now - eldest + 1) / Math.max(cache.getReloadCost(), 1e-9);
+            if (score > bestScore) {
+                bestScore = score;
+                victim = cache;
+            }
+        }
+        return victim;
+    }
+
+    private static List<ManagedCache> getLiveCaches() {
+        synchronized (caches) {
+            return new ArrayList<>(caches);
+        }
+    }
+
+    public static long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    public static long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    public static long getNumHeapPressureEvents() {
+        return numHeapPressureEvents.get();
+    }
+
+    public static int getNumRegisteredCaches() {
+        synchronized (caches) {
+            return caches.size();
+        }
+    }
+
+    /**
+     * Asks the JVM to notify when a heap pool is still above StrawGlobals.heapPressureFraction of its
+     * maximum after a collection, and then releases half of what the caches hold
+     */
+    private static synchronized void installHeapListener() {
+        if (heapListenerInstalled) return;
+        heapListenerInstalled = true;
+
+        boolean anyPool = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            long max = pool.getUsage().getMax();
+            if (max <= 0) continue;
+            pool.setCollectionUsageThreshold((long) (max * StrawGlobals.heapPressureFraction));
+            anyPool = true;
+        }
+        if (!anyPool) return;
+
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener(new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    numHeapPressureEvents.incrementAndGet();
+                    evictTo(getResidentBytes() / 2);
+                }
+            }
+        }, null, null);
+    }
+
+    /**
+     * Rough retained size of the values held by the caches, off-heap buffers included
+     */
+    public static long estimateSize(Object value) {
+        if (value == null) return 16;
+        if (value instanceof Block) {
+            List<ContactRecord> records = ((Block) value).getContactRecords();
+            return 64 + 40L * (records == null ? 0 : records.size());
+        }
+        if (value instanceof double[]) {
+            return 16 + 8L * ((double[]) value).length;
+        }
+        if (value instanceof float[]) {
+            return 16 + 4L * ((float[]) value).length;
+        }
+        if (value instanceof long[]) {
+            return 16 + 8L * ((long[]) value).length;
+        }
+        if (value instanceof int[]) {
+            return 16 + 4L * ((int[]) value).length;
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        if (value instanceof NormalizationVector) {
+            return 64 + 8L * ((NormalizationVector) value).getData().getLength();
+        }
+        if (value instanceof ExpectedValueFunction) {
+            ListOfDoubleArrays expected = ((ExpectedValueFunction) value).getExpectedValuesNoNormalization();
+            return 256 + (expected == null ? 0 : 8L * expected.getLength());
+        }
+        if (value instanceof BasicMatrix) {
+            BasicMatrix matrix = (BasicMatrix) value;
+            return 64 + 4L * matrix.getRowDimension() * matrix.getColumnDimension();
+        }
+        if (value instanceof SummedAreaTable) {
+            return ((SummedAreaTable) value).getSizeInBytes();
+        }
+        if (value instanceof BlockSummaryIndex) {
+            return ((BlockSummaryIndex) value).getSizeInBytes();
+        }
+        return 64;
+    }
+}
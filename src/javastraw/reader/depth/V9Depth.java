@@ -27,5 +27,29 @@ public abstract class V9Depth {
         return logBase(Math.abs(val1 - val2) / Math.sqrt(2) / blockBinCount);
     }
 
+    /**
+     * Smallest distance from the diagonal (in bins) which is assigned to the given depth.
+     * Returns Long.MAX_VALUE if no distance maps to that depth.
+     */
+    public long getMinDistanceForDepth(int depth) {
+        if (depth <= getDepth(0L, 0L)) return 0;
+        long hi = 1;
+        while (getDepth(0L, hi) < depth) {
+            if (hi > Long.MAX_VALUE / 4) return Long.MAX_VALUE;
+            hi *= 2;
+        }
+        long lo = hi / 2;
+        // invariant: depth(lo) < depth <= depth(hi)
+        while (hi - lo > 1) {
+            long mid = lo + (hi - lo) / 2;
+            if (getDepth(0L, mid) < depth) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return hi;
+    }
+
     protected abstract int logBase(double value);
 }
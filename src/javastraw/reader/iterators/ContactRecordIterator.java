@@ -24,23 +24,38 @@
 
 package javastraw.reader.iterators;
 
+import javastraw.StrawGlobals;
 import javastraw.reader.DatasetReader;
+import javastraw.reader.ReaderTools;
 import javastraw.reader.block.Block;
 import javastraw.reader.block.BlockIndices;
 import javastraw.reader.block.ContactRecord;
+import javastraw.reader.block.IndexEntry;
+import javastraw.reader.block.ReadPriority;
 import javastraw.reader.mzd.BlockCache;
 import javastraw.reader.mzd.BlockLoader;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Class for iterating over the contact records
+ * <p>
+ * By default blocks are visited in the order they are stored in the file, and blocks that are adjacent
+ * in the file are fetched together with one sequential read of up to StrawGlobals.readAheadBufferSize bytes.
+ * Up to prefetchWindow upcoming reads (and at most prefetchMemoryCap compressed bytes) are read on the
+ * shared I/O pool and decoded on the shared CPU pool in the background, and handed over in scan order.
+ * Call close() if the iterator is abandoned before it is exhausted, so that reads still queued are
+ * cancelled.
  */
-public class ContactRecordIterator implements Iterator<ContactRecord> {
+public class ContactRecordIterator implements Iterator<ContactRecord>, AutoCloseable {
 
     private final List<Integer> blockNumbers;
     private final BlockIndices blockIndices;
@@ -51,13 +66,40 @@ public class ContactRecordIterator implements Iterator<ContactRecord> {
     private final int chr1Idx, chr2Idx;
     private final HiCZoom zoom;
     private final NormalizationType normType;
-    private int currentBlockIdx;
+    private final int prefetchWindow;
+    private final long prefetchMemoryCap;
+    private final ArrayDeque<PendingRun> pendingRuns = new ArrayDeque<>();
+    private final ArrayDeque<Block> readyBlocks = new ArrayDeque<>();
+    private long pendingBytes = 0;
+    private ReadPriority priority = ReadPriority.NORMAL;
+    private int nextBlockIdx;
+    private volatile boolean closed = false;
 
     /**
      * Initializes the iterator
      */
     public ContactRecordIterator(DatasetReader reader, BlockIndices blockIndices, String zdKey, BlockCache blockCache,
                                  int chr1Idx, int chr2Idx, HiCZoom zoom, NormalizationType normType) {
+        this(reader, blockIndices, zdKey, blockCache, chr1Idx, chr2Idx, zoom, normType, false);
+    }
+
+    /**
+     * @param inBlockNumberOrder visit blocks in increasing block number rather than file order
+     */
+    public ContactRecordIterator(DatasetReader reader, BlockIndices blockIndices, String zdKey, BlockCache blockCache,
+                                 int chr1Idx, int chr2Idx, HiCZoom zoom, NormalizationType normType,
+                                 boolean inBlockNumberOrder) {
+        this(reader, blockIndices, zdKey, blockCache, chr1Idx, chr2Idx, zoom, normType, inBlockNumberOrder,
+                StrawGlobals.prefetchWindow, StrawGlobals.prefetchMemoryCap);
+    }
+
+    /**
+     * @param prefetchWindow    max number of reads issued ahead of the consumer; 0 reads synchronously
+     * @param prefetchMemoryCap max compressed bytes being read ahead (at least one read is always allowed)
+     */
+    public ContactRecordIterator(DatasetReader reader, BlockIndices blockIndices, String zdKey, BlockCache blockCache,
+                                 int chr1Idx, int chr2Idx, HiCZoom zoom, NormalizationType normType,
+                                 boolean inBlockNumberOrder, int prefetchWindow, long prefetchMemoryCap) {
         this.reader = reader;
         this.blockIndices = blockIndices;
         this.zdKey = zdKey;
@@ -65,9 +107,24 @@ public class ContactRecordIterator implements Iterator<ContactRecord> {
         this.chr2Idx = chr2Idx;
         this.zoom = zoom;
         this.blockCache = blockCache;
-        this.currentBlockIdx = -1;
+        this.nextBlockIdx = 0;
         this.normType = normType;
-        this.blockNumbers = blockIndices.getBlockNumbers();
+        this.prefetchWindow = Math.max(prefetchWindow, 0);
+        this.prefetchMemoryCap = prefetchMemoryCap;
+        if (inBlockNumberOrder) {
+            this.blockNumbers = blockIndices.getBlockNumbers();
+            if (blockNumbers != null) Collections.sort(blockNumbers);
+        } else {
+            this.blockNumbers = blockIndices.getBlockNumbersInFileOrder();
+        }
+    }
+
+    /**
+     * Priority class of the block reads of this iterator (e.g. BACKGROUND for batch scans)
+     */
+    public ContactRecordIterator setPriority(ReadPriority priority) {
+        this.priority = priority;
+        return this;
     }
 
     /**
@@ -87,20 +144,17 @@ public class ContactRecordIterator implements Iterator<ContactRecord> {
         if (currentBlockIterator != null && currentBlockIterator.hasNext()) {
             return true;
         } else {
-            currentBlockIdx++;
-            while (currentBlockIdx < blockNumbers.size()) {
+            fillPrefetchWindow();
+            while (!readyBlocks.isEmpty() || !pendingRuns.isEmpty() || nextBlockIdx < blockNumbers.size()) {
                 try {
-                    int blockNumber = blockNumbers.get(currentBlockIdx);
-
-                    // Optionally check the cache
-                    String key = BlockLoader.getBlockKey(zdKey, blockNumber, normType);
-                    Block nextBlock;
-                    if (blockCache.containsKey(key)) {
-                        nextBlock = blockCache.get(key);
-                    } else {
-                        nextBlock = reader.readNormalizedBlock(blockNumber, zdKey, normType,
-                                chr1Idx, chr2Idx, zoom, blockIndices.getBlock(blockNumber));
+                    if (readyBlocks.isEmpty()) {
+                        for (Block block : takeNextRun()) {
+                            if (block != null) readyBlocks.add(block);
+                        }
+                        fillPrefetchWindow();
+                        continue;
                     }
+                    Block nextBlock = readyBlocks.poll();
                     List<ContactRecord> contactRecords = nextBlock.getContactRecords();
                     if (contactRecords != null && contactRecords.size() > 0) {
                         currentBlockIterator = contactRecords.iterator();
@@ -108,9 +162,9 @@ public class ContactRecordIterator implements Iterator<ContactRecord> {
                     }
                 } catch (IOException e) {
                     System.err.println("Error fetching block " + e.getMessage());
+                    close();
                     return false;
                 }
-                currentBlockIdx++;
             }
         }
 
@@ -119,6 +173,143 @@ public class ContactRecordIterator implements Iterator<ContactRecord> {
         return false;
     }
 
+    private List<Block> takeNextRun() throws IOException {
+        if (pendingRuns.isEmpty()) {
+            int runEnd = findRunEnd(nextBlockIdx);
+            List<Integer> run = blockNumbers.subList(nextBlockIdx, runEnd);
+            nextBlockIdx = runEnd;
+            return readRun(run);
+        }
+        PendingRun pending = pendingRuns.poll();
+        pendingBytes -= pending.numBytes;
+        try {
+            return pending.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) cause = cause.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for block", e);
+        }
+    }
+
+    private void fillPrefetchWindow() {
+        while (pendingRuns.size() < prefetchWindow && nextBlockIdx < blockNumbers.size()) {
+            int runEnd = findRunEnd(nextBlockIdx);
+            long numBytes = 0;
+            for (int i = nextBlockIdx; i < runEnd; i++) {
+                numBytes += getCompressedSize(blockNumbers.get(i));
+            }
+            if (!pendingRuns.isEmpty() && pendingBytes + numBytes > prefetchMemoryCap) {
+                break;
+            }
+            final List<Integer> run = new ArrayList<>(blockNumbers.subList(nextBlockIdx, runEnd));
+            nextBlockIdx = runEnd;
+            pendingBytes += numBytes;
+            pendingRuns.add(submitRun(run, numBytes));
+        }
+    }
+
+    /**
+     * Extends the run starting at blockNumbers[start] while the next block follows the previous one in the
+     * file (within readAheadMaxGap bytes) and the whole span still fits in the read-ahead buffer
+     *
+     * @return exclusive end index of the run
+     */
+    private int findRunEnd(int start) {
+        int end = start + 1;
+        IndexEntry first = blockIndices.getBlock(blockNumbers.get(start));
+        if (first == null) return end;
+        long runEnd = first.position + first.size;
+        while (end < blockNumbers.size()) {
+            IndexEntry next = blockIndices.getBlock(blockNumbers.get(end));
+            if (next == null || next.position < runEnd || next.position - runEnd > StrawGlobals.readAheadMaxGap
+                    || next.position + next.size - first.position > StrawGlobals.readAheadBufferSize) {
+                break;
+            }
+            runEnd = next.position + next.size;
+            end++;
+        }
+        return end;
+    }
+
+    private long getCompressedSize(int blockNumber) {
+        IndexEntry idx = blockIndices.getBlock(blockNumber);
+        return idx == null ? 0 : idx.size;
+    }
+
+    private List<Block> readRun(List<Integer> run) throws IOException {
+        return decodeRun(run, readRunBytes(run));
+    }
+
+    /**
+     * Read stage: takes cached blocks from the cache and reads all uncached blocks of the run
+     * with one sequential read
+     */
+    private RunBuffer readRunBytes(List<Integer> run) throws IOException {
+        RunBuffer runBuffer = new RunBuffer(run.size());
+        if (closed) return runBuffer;
+        long end = Long.MIN_VALUE;
+        for (int i = 0; i < run.size(); i++) {
+            String key = BlockLoader.getBlockKey(zdKey, run.get(i), normType);
+            if (blockCache.containsKey(key)) {
+                runBuffer.blocks[i] = blockCache.get(key);
+            } else {
+                IndexEntry idx = blockIndices.getBlock(run.get(i));
+                if (idx != null) {
+                    runBuffer.start = Math.min(runBuffer.start, idx.position);
+                    end = Math.max(end, idx.position + idx.size);
+                }
+            }
+        }
+
+        if (runBuffer.start < end) {
+            runBuffer.buffer = ReaderTools.readBlockBytes(new IndexEntry(runBuffer.start,
+                    (int) (end - runBuffer.start)), reader.getPath(), priority);
+        }
+        return runBuffer;
+    }
+
+    /**
+     * Decode stage: inflates and decodes the remaining blocks from slices of the run buffer
+     */
+    private List<Block> decodeRun(List<Integer> run, RunBuffer runBuffer) throws IOException {
+        Block[] blocks = runBuffer.blocks;
+        for (int i = 0; i < run.size(); i++) {
+            if (blocks[i] != null) continue;
+            int blockNumber = run.get(i);
+            IndexEntry idx = blockIndices.getBlock(blockNumber);
+            byte[] compressedBytes = null;
+            if (idx != null && runBuffer.buffer != null) {
+                int offset = (int) (idx.position - runBuffer.start);
+                compressedBytes = Arrays.copyOfRange(runBuffer.buffer, offset, offset + idx.size);
+            }
+            blocks[i] = reader.decodeNormalizedBlock(blockNumber, zdKey, normType,
+                    chr1Idx, chr2Idx, zoom, compressedBytes, null);
+        }
+        return Arrays.asList(blocks);
+    }
+
+    private PendingRun submitRun(List<Integer> run, long numBytes) {
+        CompletableFuture<RunBuffer> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return readRunBytes(run);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ParallelizationTools.getIOExecutor());
+        CompletableFuture<List<Block>> decoded = read.thenApplyAsync(runBuffer -> {
+            try {
+                return decodeRun(run, runBuffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ParallelizationTools.getCPUExecutor());
+        return new PendingRun(read, decoded, numBytes);
+    }
+
     /**
      * Returns the next contact record
      *
@@ -137,4 +328,42 @@ public class ContactRecordIterator implements Iterator<ContactRecord> {
         //Not supported
         throw new RuntimeException("remove() is not supported");
     }
+
+    /**
+     * Cancels any reads still queued; reads already under way finish, but their blocks are not decoded
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PendingRun pending : pendingRuns) {
+            pending.read.cancel(true);
+            pending.future.cancel(true);
+        }
+        pendingRuns.clear();
+        readyBlocks.clear();
+        pendingBytes = 0;
+        nextBlockIdx = blockNumbers == null ? 0 : blockNumbers.size();
+    }
+
+    private static class RunBuffer {
+        final Block[] blocks;
+        byte[] buffer = null;
+        long start = Long.MAX_VALUE;
+
+        RunBuffer(int numBlocks) {
+            blocks = new Block[numBlocks];
+        }
+    }
+
+    private static class PendingRun {
+        final Future<RunBuffer> read;
+        final Future<List<Block>> future;
+        final long numBytes;
+
+        PendingRun(Future<RunBuffer> read, Future<List<Block>> future, long numBytes) {
+            this.read = read;
+            this.future = future;
+            this.numBytes = numBytes;
+        }
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2021 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package javastraw.reader.iterators;
+
+import javastraw.reader.Dataset;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.basics.ChromosomeHandler;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.HiCFileTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the contact records of one or more matrices, used to back parallel streams.
+ * <p>
+ * The unit of work is a block: splits always fall on block boundaries and divide the remaining
+ * compressed bytes in half, so each half costs roughly the same to read and decode. Blocks are
+ * read (or taken from the cache) lazily as the traversal reaches them. estimateSize() reports
+ * remaining compressed bytes rather than a record count, which is proportional to the work left.
+ */
+public class ContactRecordSpliterator implements Spliterator<ContactRecord> {
+
+    private final List<BlockUnit> units;
+    private final long[] bytesBefore;
+    private final NormalizationType normType;
+    private int index;
+    private final int fence;
+    private Iterator<ContactRecord> currentIterator = null;
+    private BlockUnit currentUnit = null;
+
+    private ContactRecordSpliterator(List<BlockUnit> units, long[] bytesBefore, NormalizationType normType,
+                                     int index, int fence) {
+        this.units = units;
+        this.bytesBefore = bytesBefore;
+        this.normType = normType;
+        this.index = index;
+        this.fence = fence;
+    }
+
+    private static ContactRecordSpliterator create(List<BlockUnit> units, NormalizationType normType) {
+        long[] bytesBefore = new long[units.size() + 1];
+        for (int i = 0; i < units.size(); i++) {
+            bytesBefore[i + 1] = bytesBefore[i] + units.get(i).numBytes;
+        }
+        return new ContactRecordSpliterator(units, bytesBefore, normType, 0, units.size());
+    }
+
+    public static ContactRecordSpliterator forMatrix(MatrixZoomData zd, NormalizationType normType) {
+        List<BlockUnit> units = new ArrayList<>();
+        addUnits(units, zd, 0, 0);
+        return create(units, normType);
+    }
+
+    /**
+     * Records of inter-chromosomal (and optionally intra-chromosomal) matrices, with bins offset
+     * into genome-wide coordinates the same way as GenomeWideIterator
+     */
+    public static ContactRecordSpliterator forGenome(Dataset dataset, ChromosomeHandler handler, HiCZoom zoom,
+                                                     NormalizationType normType,
+                                                     boolean includeIntra, boolean includeInter) {
+        Chromosome[] chromosomes = handler.getChromosomeArrayWithoutAllByAll();
+        List<BlockUnit> units = new ArrayList<>();
+
+        int xOffset = 0;
+        for (int i = 0; i < chromosomes.length; i++) {
+            Chromosome c1 = chromosomes[i];
+            int yOffset = xOffset;
+            for (int j = i; j < chromosomes.length; j++) {
+                Chromosome c2 = chromosomes[j];
+                if ((c1.getIndex() < c2.getIndex() && includeInter) || (c1.equals(c2) && includeIntra)) {
+                    MatrixZoomData zd = HiCFileTools.getMatrixZoomData(dataset, c1, c2, zoom);
+                    if (zd != null) {
+                        addUnits(units, zd, xOffset, yOffset);
+                    }
+                }
+                yOffset += c2.getLength() / zoom.getBinSize() + 1;
+            }
+            xOffset += c1.getLength() / zoom.getBinSize() + 1;
+        }
+        return create(units, normType);
+    }
+
+    private static void addUnits(List<BlockUnit> units, MatrixZoomData zd, int xOffset, int yOffset) {
+        List<Integer> blockNumbers = zd.getBlockNumbersInFileOrder();
+        if (blockNumbers == null) {
+            System.err.println("ERROR: No blocks available for " + zd.getKey() + ". " +
+                    "Verify dynamic blocks not being used or that cache has not been cleared early.");
+            return;
+        }
+        for (int blockNumber : blockNumbers) {
+            Integer numBytes = zd.getBlockSize(blockNumber);
+            units.add(new BlockUnit(zd, blockNumber, xOffset, yOffset, numBytes == null ? 0 : numBytes));
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ContactRecord> action) {
+        while (currentIterator == null || !currentIterator.hasNext()) {
+            if (index >= fence) return false;
+            loadUnit(units.get(index++));
+        }
+        action.accept(shift(currentIterator.next()));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super ContactRecord> action) {
+        while (true) {
+            if (currentIterator != null) {
+                while (currentIterator.hasNext()) {
+                    action.accept(shift(currentIterator.next()));
+                }
+            }
+            if (index >= fence) return;
+            loadUnit(units.get(index++));
+        }
+    }
+
+    private void loadUnit(BlockUnit unit) {
+        currentUnit = unit;
+        try {
+            Block block = unit.zd.getNormalizedBlock(unit.blockNumber, normType);
+            currentIterator = block == null ? null : block.getContactRecords().iterator();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error fetching block " + unit.blockNumber
+                    + " of " + unit.zd.getKey(), e);
+        }
+    }
+
+    private ContactRecord shift(ContactRecord record) {
+        if (currentUnit.xOffset == 0 && currentUnit.yOffset == 0) return record;
+        return new ContactRecord(record.getBinX() + currentUnit.xOffset,
+                record.getBinY() + currentUnit.yOffset, record.getCounts());
+    }
+
+    @Override
+    public Spliterator<ContactRecord> trySplit() {
+        // a partially consumed block stays with this half, so only split between blocks
+        if (fence - index < 2 || (currentIterator != null && currentIterator.hasNext())) {
+            return null;
+        }
+        long target = (bytesBefore[index] + bytesBefore[fence]) / 2;
+        int lo = index + 1, hi = fence - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bytesBefore[mid] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        ContactRecordSpliterator prefix = new ContactRecordSpliterator(units, bytesBefore, normType, index, lo);
+        index = lo;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return bytesBefore[fence] - bytesBefore[index];
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    private static class BlockUnit {
+        final MatrixZoomData zd;
+        final int blockNumber;
+        final int xOffset, yOffset;
+        final long numBytes;
+
+        BlockUnit(MatrixZoomData zd, int blockNumber, int xOffset, int yOffset, long numBytes) {
+            this.zd = zd;
+            this.blockNumber = blockNumber;
+            this.xOffset = xOffset;
+            this.yOffset = yOffset;
+            this.numBytes = numBytes;
+        }
+    }
+}
@@ -28,7 +28,7 @@ import javastraw.reader.block.ContactRecord;
 
 import java.util.Iterator;
 
-public class CoupledIteratorAndOffset implements Iterator<ContactRecord> {
+public class CoupledIteratorAndOffset implements Iterator<ContactRecord>, AutoCloseable {
 
     private final Iterator<ContactRecord> internalIterator;
     private final int xOffset, yOffset;
@@ -58,4 +58,14 @@ public class CoupledIteratorAndOffset implements Iterator<ContactRecord> {
         int binY = cr.getBinY() + yOffset;
         return new ContactRecord(binX, binY, cr.getCounts());
     }
+
+    /**
+     * Stops the read-ahead of the underlying iterator, if it has one
+     */
+    @Override
+    public void close() {
+        if (internalIterator instanceof ContactRecordIterator) {
+            ((ContactRecordIterator) internalIterator).close();
+        }
+    }
 }
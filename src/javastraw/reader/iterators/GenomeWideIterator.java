@@ -31,11 +31,14 @@ import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.mzd.MatrixZoomData;
 import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
 import javastraw.tools.HiCFileTools;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class GenomeWideIterator implements Iterator<ContactRecord> {
 
@@ -70,6 +73,15 @@ public class GenomeWideIterator implements Iterator<ContactRecord> {
         return getNextIterator();
     }
 
+    /**
+     * Stream equivalent of this iterator, split on block boundaries for use with parallel()
+     */
+    public static Stream<ContactRecord> contacts(Dataset dataset, ChromosomeHandler handler, HiCZoom zoom,
+                                                 NormalizationType norm, boolean includeIntra, boolean includeInter) {
+        return StreamSupport.stream(ContactRecordSpliterator.forGenome(dataset, handler, zoom, norm,
+                includeIntra, includeInter), false);
+    }
+
     public static List<CoupledIteratorAndOffset> getAllFromFileIterators(Dataset dataset, ChromosomeHandler handler,
                                                                          HiCZoom zoom, boolean includeIntra) {
         Chromosome[] chromosomes = handler.getChromosomeArrayWithoutAllByAll();
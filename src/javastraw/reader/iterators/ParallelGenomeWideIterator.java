@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2021 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package javastraw.reader.iterators;
+
+import javastraw.StrawGlobals;
+import javastraw.reader.Dataset;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.basics.ChromosomeHandler;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.block.ReadPriority;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.HiCFileTools;
+import javastraw.tools.ParallelizationTools;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Genome-wide pass that works on several chromosome pairs at once.
+ * <p>
+ * Records carry genome-wide bins, offset the same way as in GenomeWideIterator. processUnordered hands
+ * each pair to a worker, largest pairs (by compressed size) first, for maximum throughput. iterator()
+ * returns the records in the same order as GenomeWideIterator, while up to parallelism upcoming pairs
+ * are opened and start reading ahead in the background. Either way the read-ahead of each open pair is
+ * limited to memoryCap / parallelism compressed bytes. All work runs on the shared pools of
+ * ParallelizationTools.
+ */
+public class ParallelGenomeWideIterator {
+
+    private final Dataset dataset;
+    private final HiCZoom zoom;
+    private final NormalizationType norm;
+    private final int parallelism;
+    private final long memoryCapPerPair;
+    private final List<PairSpec> pairs = new ArrayList<>();
+    private ReadPriority priority = ReadPriority.NORMAL;
+
+    public ParallelGenomeWideIterator(Dataset dataset, ChromosomeHandler handler, HiCZoom zoom,
+                                      NormalizationType norm, boolean includeIntra, boolean includeInter) {
+        this(dataset, handler, zoom, norm, includeIntra, includeInter,
+                StrawGlobals.cpuParallelism, StrawGlobals.prefetchMemoryCap);
+    }
+
+    /**
+     * @param parallelism number of pairs processed (or opened ahead) at the same time, at most the size
+     *                    of the shared pools
+     * @param memoryCap   compressed bytes read ahead across all open pairs
+     */
+    public ParallelGenomeWideIterator(Dataset dataset, ChromosomeHandler handler, HiCZoom zoom,
+                                      NormalizationType norm, boolean includeIntra, boolean includeInter,
+                                      int parallelism, long memoryCap) {
+        this.dataset = dataset;
+        this.zoom = zoom;
+        this.norm = norm;
+        this.parallelism = Math.max(parallelism, 1);
+        this.memoryCapPerPair = Math.max(memoryCap / this.parallelism, 1);
+
+        Chromosome[] chromosomes = handler.getChromosomeArrayWithoutAllByAll();
+        int xOffset = 0;
+        for (int i = 0; i < chromosomes.length; i++) {
+            Chromosome c1 = chromosomes[i];
+            int yOffset = xOffset;
+            for (int j = i; j < chromosomes.length; j++) {
+                Chromosome c2 = chromosomes[j];
+                if ((c1.getIndex() < c2.getIndex() && includeInter) || (c1.equals(c2) && includeIntra)) {
+                    pairs.add(new PairSpec(c1, c2, xOffset, yOffset));
+                }
+                yOffset += c2.getLength() / zoom.getBinSize() + 1;
+            }
+            xOffset += c1.getLength() / zoom.getBinSize() + 1;
+        }
+    }
+
+    /**
+     * Priority class of the block reads of this pass, e.g. BACKGROUND so that it does not slow down
+     * interactive queries on the same storage
+     */
+    public ParallelGenomeWideIterator setPriority(ReadPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public interface PairProcessor {
+        /**
+         * Called concurrently from several threads, once per non-empty chromosome pair
+         */
+        void process(Chromosome chr1, Chromosome chr2, CoupledIteratorAndOffset iterator);
+    }
+
+    /**
+     * Runs the processor on every chromosome pair, several pairs at a time, largest pairs first.
+     * Returns once all pairs are done; the first failure is rethrown.
+     */
+    public void processUnordered(PairProcessor processor) {
+        List<PairSpec> sorted = new ArrayList<>(pairs);
+        AtomicInteger sizeIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedIO(Math.min(sorted.size(), StrawGlobals.ioParallelism), () -> {
+            int i = sizeIndex.getAndIncrement();
+            while (i < sorted.size()) {
+                PairSpec pair = sorted.get(i);
+                MatrixZoomData zd = pair.getZoomData();
+                pair.compressedSize = zd == null ? 0 : zd.getCompressedSize();
+                i = sizeIndex.getAndIncrement();
+            }
+        });
+        sorted.sort((p1, p2) -> Long.compare(p2.compressedSize, p1.compressedSize));
+
+        AtomicInteger pairIndex = new AtomicInteger(0);
+        try {
+            ParallelizationTools.launchParallelizedCode(Math.min(parallelism, sorted.size()), () -> {
+                int i = pairIndex.getAndIncrement();
+                while (i < sorted.size()) {
+                    PairSpec pair = sorted.get(i);
+                    CoupledIteratorAndOffset iterator = pair.openIterator();
+                    if (iterator != null) {
+                        try {
+                            if (iterator.hasNext()) processor.process(pair.chr1, pair.chr2, iterator);
+                        } finally {
+                            iterator.close();
+                        }
+                    }
+                    i = pairIndex.getAndIncrement();
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Error during genome-wide pass", e);
+        }
+    }
+
+    /**
+     * @return records in GenomeWideIterator order; close it if abandoned early
+     */
+    public OrderedIterator iterator() {
+        return new OrderedIterator();
+    }
+
+    public class OrderedIterator implements Iterator<ContactRecord>, AutoCloseable {
+
+        private final ArrayDeque<Future<CoupledIteratorAndOffset>> upcoming = new ArrayDeque<>();
+        private int nextPair = 0;
+        private CoupledIteratorAndOffset current = null;
+        private volatile boolean closed = false;
+
+        private OrderedIterator() {
+            fillLookahead();
+        }
+
+        private void fillLookahead() {
+            while (upcoming.size() < parallelism && nextPair < pairs.size()) {
+                final PairSpec pair = pairs.get(nextPair++);
+                upcoming.add(ParallelizationTools.submitIO(() -> {
+                    CoupledIteratorAndOffset iterator = pair.openIterator();
+                    if (iterator == null) return null;
+                    // hasNext starts the read-ahead of the pair; look again in case close() came meanwhile
+                    boolean hasRecords = !closed && iterator.hasNext();
+                    if (hasRecords && !closed) return iterator;
+                    iterator.close();
+                    return null;
+                }));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (upcoming.isEmpty()) {
+                    close();
+                    return false;
+                }
+                if (current != null) current.close();
+                try {
+                    current = upcoming.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException("Interrupted during genome-wide pass", e);
+                } catch (ExecutionException e) {
+                    close();
+                    throw new RuntimeException("Error during genome-wide pass", e.getCause());
+                }
+                fillLookahead();
+            }
+            return true;
+        }
+
+        @Override
+        public ContactRecord next() {
+            return current.next();
+        }
+
+        /**
+         * Stops the read-ahead of the current pair and of the pairs opened ahead; pairs still being
+         * opened close themselves
+         */
+        @Override
+        public void close() {
+            closed = true;
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            for (Future<CoupledIteratorAndOffset> future : upcoming) {
+                if (!future.cancel(true) && future.isDone() && !future.isCancelled()) {
+                    try {
+                        CoupledIteratorAndOffset iterator = future.get();
+                        if (iterator != null) iterator.close();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // nothing left to close
+                    }
+                }
+            }
+            upcoming.clear();
+            nextPair = pairs.size();
+        }
+    }
+
+    private class PairSpec {
+        final Chromosome chr1, chr2;
+        final int xOffset, yOffset;
+        long compressedSize = 0;
+
+        PairSpec(Chromosome chr1, Chromosome chr2, int xOffset, int yOffset) {
+            this.chr1 = chr1;
+            this.chr2 = chr2;
+            this.xOffset = xOffset;
+            this.yOffset = yOffset;
+        }
+
+        MatrixZoomData getZoomData() {
+            return HiCFileTools.getMatrixZoomData(dataset, chr1, chr2, zoom);
+        }
+
+        CoupledIteratorAndOffset openIterator() {
+            MatrixZoomData zd = getZoomData();
+            if (zd == null) return null;
+            Iterator<ContactRecord> iterator = zd.getNormalizedIterator(norm, false,
+                    StrawGlobals.prefetchWindow, memoryCapPerPair, priority);
+            return new CoupledIteratorAndOffset(iterator, xOffset, yOffset, chr1.getIndex() == chr2.getIndex());
+        }
+    }
+}
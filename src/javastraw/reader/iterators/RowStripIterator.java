@@ -0,0 +1,239 @@
+package javastraw.reader.iterators;
+
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.mzd.DynamicMatrixZoomData;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ExtractingOEDataUtils;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Walks the region rows [binXStart, binXEnd] x columns [binYStart, binYEnd] in horizontal strips of
+ * stripHeight rows, each handed over as a dense row-major float[numRows * width] (0 where there are no
+ * contacts), so memory is bounded by the strip size rather than by the region.
+ * <p>
+ * Each block is read once, even if it spans several strips, and is dropped after the last strip that
+ * needs it. The blocks of the next strip are read in the background while the current one is used.
+ * Values are the normalized counts (raw with NONE), or observed over expected once
+ * setObservedOverExpected is called. Call close() if the iterator is abandoned before the end.
+ */
+public class RowStripIterator implements Iterator<RowStripIterator.Strip>, AutoCloseable {
+
+    private final MatrixZoomData zd;
+    private final NormalizationType norm;
+    private final long binXStart, binXEnd, binYStart, binYEnd;
+    private final int stripHeight;
+    private final int width;
+    private final boolean fillUnderDiagonal;
+    private final int numStrips;
+    private final List<int[]> stripBlockNumbers = new ArrayList<>();
+    private final Map<Integer, Integer> lastStripForBlock = new HashMap<>();
+    private final Map<Integer, CompletableFuture<Block>> loadedBlocks = new HashMap<>();
+    private int nextStrip = 0;
+
+    private boolean useOE = false;
+    private ExpectedValueFunction df;
+    private int chrIndex;
+    private boolean isIntra;
+    private ExtractingOEDataUtils.ThresholdType thresholdType;
+    private double threshold;
+    private float pseudocount, invalidReplacement;
+
+    public RowStripIterator(MatrixZoomData zd, NormalizationType norm, long binXStart, long binXEnd,
+                            long binYStart, long binYEnd, int stripHeight, boolean fillUnderDiagonal) {
+        this.zd = zd;
+        this.norm = norm;
+        this.binXStart = binXStart;
+        this.binXEnd = binXEnd;
+        this.binYStart = binYStart;
+        this.binYEnd = binYEnd;
+        this.stripHeight = stripHeight;
+        this.width = (int) (binYEnd - binYStart + 1);
+        this.fillUnderDiagonal = fillUnderDiagonal;
+        this.numStrips = (int) ((binXEnd - binXStart + stripHeight) / stripHeight);
+
+        if (!(zd instanceof DynamicMatrixZoomData)) {
+            for (int s = 0; s < numStrips; s++) {
+                int[] blockNumbers = zd.getBlockNumbersOverlapping(getStripStart(s), binYStart, getStripEnd(s),
+                        binYEnd, fillUnderDiagonal);
+                stripBlockNumbers.add(blockNumbers);
+                for (int blockNumber : blockNumbers) {
+                    lastStripForBlock.put(blockNumber, s);
+                }
+            }
+        }
+        prefetch(0);
+    }
+
+    /**
+     * Strips of a whole chromosome (intra-chromosomal map), filled under the diagonal
+     */
+    public static RowStripIterator forChromosome(MatrixZoomData zd, NormalizationType norm, int stripHeight) {
+        long maxBin = zd.getChr1().getLength() / zd.getBinSize();
+        return new RowStripIterator(zd, norm, 0, maxBin, 0, maxBin, stripHeight, true);
+    }
+
+    /**
+     * Deliver observed over expected values instead, computed per record as in
+     * ExtractingOEDataUtils.extractObsOverExpBoundedRegion
+     */
+    public RowStripIterator setObservedOverExpected(ExpectedValueFunction df, int chrIndex, boolean isIntra,
+                                                    ExtractingOEDataUtils.ThresholdType thresholdType,
+                                                    double threshold, float pseudocount, float invalidReplacement) {
+        this.useOE = true;
+        this.df = df;
+        this.chrIndex = chrIndex;
+        this.isIntra = isIntra;
+        this.thresholdType = thresholdType;
+        this.threshold = threshold;
+        this.pseudocount = pseudocount;
+        this.invalidReplacement = invalidReplacement;
+        return this;
+    }
+
+    private long getStripStart(int s) {
+        return binXStart + (long) s * stripHeight;
+    }
+
+    private long getStripEnd(int s) {
+        return Math.min(getStripStart(s) + stripHeight - 1, binXEnd);
+    }
+
+    /**
+     * Starts reading the blocks of strip s that are not loaded or loading yet
+     */
+    private void prefetch(int s) {
+        if (s >= numStrips || stripBlockNumbers.isEmpty()) return;
+        for (int blockNumber : stripBlockNumbers.get(s)) {
+            if (loadedBlocks.containsKey(blockNumber)) continue;
+            loadedBlocks.put(blockNumber, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return zd.getNormalizedBlock(blockNumber, norm);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ParallelizationTools.getIOExecutor()));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextStrip < numStrips;
+    }
+
+    @Override
+    public Strip next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int s = nextStrip++;
+        prefetch(s + 1);
+
+        long x0 = getStripStart(s);
+        int numRows = (int) (getStripEnd(s) - x0 + 1);
+        float[] data = new float[numRows * width];
+
+        for (Block b : getBlocks(s)) {
+            if (b == null) continue;
+            for (ContactRecord rec : b.getContactRecords()) {
+                write(data, numRows, x0, rec.getBinX(), rec.getBinY(), rec);
+                if (fillUnderDiagonal) {
+                    write(data, numRows, x0, rec.getBinY(), rec.getBinX(), rec);
+                }
+            }
+        }
+
+        // blocks not needed by later strips are released
+        if (!stripBlockNumbers.isEmpty()) {
+            for (int blockNumber : stripBlockNumbers.get(s)) {
+                if (lastStripForBlock.get(blockNumber) == s) {
+                    loadedBlocks.remove(blockNumber);
+                }
+            }
+        }
+        return new Strip(x0, numRows, width, data);
+    }
+
+    private List<Block> getBlocks(int s) {
+        if (stripBlockNumbers.isEmpty()) {
+            // dynamic resolutions are aggregated from a higher resolution by the region query
+            return zd.getNormalizedBlocksOverlapping(getStripStart(s), binYStart, getStripEnd(s), binYEnd,
+                    norm, fillUnderDiagonal);
+        }
+        List<Block> blocks = new ArrayList<>();
+        for (int blockNumber : stripBlockNumbers.get(s)) {
+            try {
+                blocks.add(loadedBlocks.get(blockNumber).join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) throw (UncheckedIOException) cause;
+                throw e;
+            }
+        }
+        return blocks;
+    }
+
+    private void write(float[] data, int numRows, long x0, int binX, int binY, ContactRecord rec) {
+        long row = binX - x0;
+        long col = binY - binYStart;
+        if (row < 0 || row >= numRows || col < 0 || col >= width) return;
+        float value = rec.getCounts();
+        if (useOE) {
+            double expected = ExtractingOEDataUtils.getExpected(rec, df, chrIndex, isIntra, zd.getAverageCount());
+            value = ExtractingOEDataUtils.getOEValue(value, expected, pseudocount, thresholdType, threshold,
+                    invalidReplacement);
+        }
+        data[(int) (row * width + col)] = value;
+    }
+
+    @Override
+    public void close() {
+        for (CompletableFuture<Block> future : loadedBlocks.values()) {
+            future.cancel(false);
+        }
+        loadedBlocks.clear();
+        nextStrip = numStrips;
+    }
+
+    /**
+     * Rows [firstRow, firstRow + numRows) of the region, row-major over width columns
+     */
+    public static class Strip {
+        private final long firstRow;
+        private final int numRows, width;
+        private final float[] data;
+
+        public Strip(long firstRow, int numRows, int width, float[] data) {
+            this.firstRow = firstRow;
+            this.numRows = numRows;
+            this.width = width;
+            this.data = data;
+        }
+
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        public int getNumRows() {
+            return numRows;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public float[] getData() {
+            return data;
+        }
+
+        public float get(int row, int col) {
+            return data[row * width + col];
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package javastraw.reader.mzd;
+
+import javastraw.StrawGlobals;
+import javastraw.reader.DatasetReader;
+import javastraw.reader.ReaderTools;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.BlockIndices;
+import javastraw.reader.block.IndexEntry;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Many same-sized rectangles of one matrix in a single pass: the union of their blocks is loaded once,
+ * in file order, and every decoded block is written into all the rectangles that need it before it
+ * is dropped. Blocks already in the cache are used, but newly read ones are not added to it.
+ */
+class BatchRegionLoader {
+
+    static float[][] getRegions(MatrixZoomData zd, long[] binXStarts, long[] binYStarts, int numRows, int numCols,
+                                NormalizationType no, boolean fillUnderDiagonal, String zdKey, BlockCache blockCache,
+                                DatasetReader reader, BlockIndices blockIndices, int chr1Idx, int chr2Idx,
+                                HiCZoom zoom) throws IOException {
+        int numRegions = binXStarts.length;
+        float[][] regions = new float[numRegions][numRows * numCols];
+
+        Map<Integer, List<Integer>> regionsForBlock = new HashMap<>();
+        for (int r = 0; r < numRegions; r++) {
+            for (int blockNumber : zd.getBlockNumbersOverlapping(binXStarts[r], binYStarts[r],
+                    binXStarts[r] + numRows - 1, binYStarts[r] + numCols - 1, fillUnderDiagonal)) {
+                regionsForBlock.computeIfAbsent(blockNumber, k -> new ArrayList<>()).add(r);
+            }
+        }
+
+        List<Integer> blockOrder = new ArrayList<>();
+        List<Integer> inFileOrder = blockIndices == null ? null : blockIndices.getBlockNumbersInFileOrder();
+        if (inFileOrder != null) {
+            for (int blockNumber : inFileOrder) {
+                if (regionsForBlock.containsKey(blockNumber)) blockOrder.add(blockNumber);
+            }
+        } else {
+            blockOrder.addAll(new TreeSet<>(regionsForBlock.keySet()));
+        }
+
+        // bounds the blocks read but not yet written out
+        Semaphore inFlight = new Semaphore(2 * StrawGlobals.ioParallelism);
+        BlockSummaryIndex summaries = blockCache.getBlockSummariesIfPresent(no);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            for (int blockNumber : blockOrder) {
+                if (summaries != null && summaries.canSkip(blockNumber, null)) continue;
+                List<Integer> regionList = regionsForBlock.get(blockNumber);
+                String key = BlockLoader.getBlockKey(zdKey, blockNumber, no);
+                Block cached = blockCache.containsKey(key) ? blockCache.get(key) : null;
+                IndexEntry idx = blockIndices == null ? null : blockIndices.getBlock(blockNumber);
+                if (cached == null && idx == null) continue;
+
+                inFlight.acquire();
+                CompletableFuture<Void> future;
+                if (cached != null) {
+                    future = CompletableFuture.runAsync(() -> writeBlock(cached, regions, regionList, binXStarts,
+                            binYStarts, numRows, numCols, fillUnderDiagonal), ParallelizationTools.getCPUExecutor());
+                } else {
+                    future = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return ReaderTools.readBlockBytes(idx, reader.getPath());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, ParallelizationTools.getIOExecutor()).thenAcceptAsync(compressedBytes -> {
+                        try {
+                            Block b = reader.decodeNormalizedBlock(blockNumber, zdKey, no, chr1Idx, chr2Idx, zoom,
+                                    compressedBytes, null);
+                            writeBlock(b, regions, regionList, binXStarts, binYStarts, numRows, numCols,
+                                    fillUnderDiagonal);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, ParallelizationTools.getCPUExecutor());
+                }
+                futures.add(future.whenComplete((v, t) -> inFlight.release()));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading blocks of " + zdKey, e);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) cause = cause.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+        return regions;
+    }
+
+    /**
+     * Each region only visits the records that fall in it (or, mirrored, in its transpose)
+     */
+    private static void writeBlock(Block b, float[][] regions, List<Integer> regionList, long[] binXStarts,
+                                   long[] binYStarts, int numRows, int numCols, boolean fillUnderDiagonal) {
+        if (b == null || b.getContactRecords().isEmpty()) return;
+        SortedRecords byBinX = SortedRecords.byBinX(b.getContactRecords());
+        SortedRecords byBinY = fillUnderDiagonal ? SortedRecords.byBinY(b.getContactRecords()) : null;
+
+        for (int r : regionList) {
+            float[] region = regions[r];
+            int x0 = (int) binXStarts[r];
+            int y0 = (int) binYStarts[r];
+            byBinX.forEachIn(x0, x0 + numRows - 1, y0, y0 + numCols - 1,
+                    (binX, binY, counts) -> region[(binX - x0) * numCols + (binY - y0)] = counts);
+            if (byBinY != null) {
+                // record (binX, binY) mirrored to cell (binY - x0, binX - y0)
+                byBinY.forEachIn(x0, x0 + numRows - 1, y0, y0 + numCols - 1,
+                        (binY, binX, counts) -> region[(binY - x0) * numCols + (binX - y0)] = counts);
+            }
+        }
+    }
+}
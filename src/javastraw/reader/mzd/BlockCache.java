@@ -1,55 +1,178 @@
 package javastraw.reader.mzd;
 
 import javastraw.reader.block.Block;
-import org.broad.igv.util.collections.LRUCache;
+import javastraw.reader.datastructures.ComputeOnceCache;
+import javastraw.reader.datastructures.MemoryGovernor;
+import javastraw.reader.type.NormalizationType;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
-public class BlockCache {
-    LRUCache<String, Block> cache = new LRUCache<>(500);
+/**
+ * Thread-safe cache of decoded blocks, plus the registry of blocks currently being loaded so that
+ * concurrent requests for the same block share one read (single flight).
+ * <p>
+ * Holds at most MAX_BLOCKS blocks; their size also counts against the MemoryGovernor budget.
+ * Block summary indexes, once built, are kept here too so the block planners can skip blocks; they are
+ * built once per normalization even under concurrent requests, and are governed as well.
+ */
+public class BlockCache implements MemoryGovernor.ManagedCache {
+    private static final int MAX_BLOCKS = 500;
+    private final LinkedHashMap<String, CachedBlock> cache = new LinkedHashMap<String, CachedBlock>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedBlock> eldest) {
+            if (size() > MAX_BLOCKS) {
+                release(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final ConcurrentHashMap<String, CompletableFuture<Block>> inFlight = new ConcurrentHashMap<>();
+    // rebuilding an index scans every block of the matrix
+    private final ComputeOnceCache<NormalizationType, BlockSummaryIndex> summaries = new ComputeOnceCache<>(0, false, 16);
     private boolean useCache = true;
+    private long residentBytes = 0;
 
-    public void clear() {
+    public BlockCache() {
+        MemoryGovernor.register(this);
+    }
+
+    public synchronized void clear() {
+        for (CachedBlock entry : cache.values()) {
+            release(entry);
+        }
         cache.clear();
     }
 
     public void put(String key, Block b) {
-        if (useCache) {
-            cache.put(key, b);
+        long bytes = MemoryGovernor.estimateSize(b);
+        synchronized (this) {
+            if (!useCache) return;
+            CachedBlock previous = cache.put(key, new CachedBlock(b, bytes));
+            if (previous != null) release(previous);
+            residentBytes += bytes;
         }
+        MemoryGovernor.onGrowth(bytes);
     }
 
-    public boolean containsKey(String key) {
+    public synchronized boolean containsKey(String key) {
         return useCache && cache.containsKey(key);
     }
 
-    public Block get(String key) {
+    public synchronized Block get(String key) {
         if (useCache) {
-            return cache.get(key);
+            CachedBlock entry = cache.get(key);
+            if (entry == null) return null;
+            entry.lastAccess = MemoryGovernor.tick();
+            return entry.block;
         }
         System.err.println("Invalid situation - cache is not set");
         System.exit(9);
         return null;
     }
 
-    public void setUseCache(boolean useCache) {
+    public synchronized void setUseCache(boolean useCache) {
         this.useCache = useCache;
         if (!useCache) {
-            cache.clear();
+            clear();
         }
     }
 
     public void addAll(BlockCache other) {
-        if (useCache) {
-            Set<String> keys = new HashSet<>(other.cache.keySet());
-            for (String key : keys) {
-                cache.put(key, other.cache.get(key));
+        Map<String, Block> blocks = new HashMap<>();
+        synchronized (other) {
+            for (Map.Entry<String, CachedBlock> entry : other.cache.entrySet()) {
+                blocks.put(entry.getKey(), entry.getValue().block);
             }
         }
+        for (Map.Entry<String, Block> entry : blocks.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
     }
 
-    public boolean getUseCache() {
+    public BlockSummaryIndex getBlockSummaries(NormalizationType no, Function<NormalizationType, BlockSummaryIndex> builder) {
+        return summaries.get(no, builder);
+    }
+
+    /**
+     * @return the summaries if they were already built, else null
+     */
+    public BlockSummaryIndex getBlockSummariesIfPresent(NormalizationType no) {
+        return summaries.getIfPresent(no);
+    }
+
+    public void clearBlockSummaries() {
+        summaries.clear();
+    }
+
+    public synchronized boolean getUseCache() {
         return useCache;
     }
+
+    private void release(CachedBlock entry) {
+        residentBytes -= entry.bytes;
+        MemoryGovernor.onRelease(entry.bytes);
+    }
+
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public synchronized long getEldestAccess() {
+        Iterator<CachedBlock> iterator = cache.values().iterator();
+        return iterator.hasNext() ? iterator.next().lastAccess : -1;
+    }
+
+    @Override
+    public double getReloadCost() {
+        return 1;
+    }
+
+    @Override
+    public synchronized long evictEldest() {
+        Iterator<CachedBlock> iterator = cache.values().iterator();
+        if (!iterator.hasNext()) return 0;
+        long bytes = iterator.next().bytes;
+        iterator.remove();
+        residentBytes -= bytes;
+        return bytes;
+    }
+
+    /**
+     * @return the load already in flight for this key, or null if the caller now owns the load
+     * and must finish it with completeLoad or failLoad
+     */
+    public CompletableFuture<Block> registerLoad(String key, CompletableFuture<Block> future) {
+        return inFlight.putIfAbsent(key, future);
+    }
+
+    public void completeLoad(String key, CompletableFuture<Block> future, Block b) {
+        put(key, b);
+        inFlight.remove(key, future);
+        future.complete(b);
+    }
+
+    public void failLoad(String key, CompletableFuture<Block> future, Throwable cause) {
+        inFlight.remove(key, future);
+        future.completeExceptionally(cause);
+    }
+
+    private static class CachedBlock {
+        final Block block;
+        final long bytes;
+        long lastAccess = MemoryGovernor.tick();
+
+        CachedBlock(Block block, long bytes) {
+            this.block = block;
+            this.bytes = bytes;
+        }
+    }
 }
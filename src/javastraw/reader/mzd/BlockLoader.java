@@ -1,81 +1,379 @@
 package javastraw.reader.mzd;
 
+import javastraw.StrawGlobals;
 import javastraw.reader.DatasetReader;
+import javastraw.reader.ReaderTools;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.block.Block;
 import javastraw.reader.block.BlockIndices;
 import javastraw.reader.block.BlockModifier;
+import javastraw.reader.block.ContactFilter;
 import javastraw.reader.block.IndexEntry;
+import javastraw.reader.block.QueryToken;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
+import javastraw.tools.IOConcurrencyController;
 import javastraw.tools.ParallelizationTools;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class BlockLoader {
+
+    // cancel does not signal, so waits look at the query token this often
+    private static final long CANCEL_POLL_MILLIS = 10;
+
     public static void actuallyLoadGivenBlocks(final List<Block> globalBlockList, List<Integer> blockIds,
                                                final NormalizationType no, BlockModifier modifier,
                                                final String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
                                                BlockCache globalBlockCache, DatasetReader reader,
                                                BlockIndices blockIndex) {
+        actuallyLoadGivenBlocks(globalBlockList, blockIds, no, modifier, zdKey, chrom1, chrom2, zoom,
+                globalBlockCache, reader, blockIndex, null);
+    }
+
+    public static void actuallyLoadGivenBlocks(final List<Block> globalBlockList, List<Integer> blockIds,
+                                               final NormalizationType no, BlockModifier modifier,
+                                               final String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                               BlockCache globalBlockCache, DatasetReader reader,
+                                               BlockIndices blockIndex, ContactFilter filter) {
+        actuallyLoadGivenBlocks(globalBlockList, blockIds, no, modifier, zdKey, chrom1, chrom2, zoom,
+                globalBlockCache, reader, blockIndex, filter, null);
+    }
+
+    /**
+     * Blocks already being loaded by another thread are waited for instead of read again.
+     *
+     * @param filter optional; every returned record passes it. Count, distance and mask predicates are
+     *               pushed down into decoding, and such partial blocks are neither put in the block
+     *               cache nor shared with other requests. For a position-only filter whole blocks are
+     *               loaded and cached, and clipped to the rectangle when added to the list
+     * @param token  optional; once it is cancelled or past its deadline, blocks not yet read are
+     *               skipped (and counted in the token) while blocks already read are still cached
+     * @throws UncheckedIOException if any block could not be read or decoded (after all the others
+     *                              were loaded, and cached if possible), instead of a partial result
+     */
+    public static void actuallyLoadGivenBlocks(final List<Block> globalBlockList, List<Integer> blockIds,
+                                               final NormalizationType no, BlockModifier modifier,
+                                               final String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                               BlockCache globalBlockCache, DatasetReader reader,
+                                               BlockIndices blockIndex, ContactFilter filter, QueryToken token) {
+        if (blockIds.isEmpty()) return;
+        if (filter != null && filter.isPositionOnly()) {
+            List<Block> wholeBlocks = new ArrayList<>(blockIds.size());
+            try {
+                actuallyLoadGivenBlocks(wholeBlocks, blockIds, no, modifier, zdKey, chrom1, chrom2, zoom,
+                        globalBlockCache, reader, blockIndex, null, token);
+            } finally {
+                for (Block b : wholeBlocks) {
+                    globalBlockList.add(filter.filter(b, getBlockKey(zdKey, b.getNumber(), no)));
+                }
+            }
+            return;
+        }
+        if (filter != null) {
+            loadBlocks(globalBlockList, blockIds, no, modifier, zdKey, chrom1, chrom2, zoom, reader, blockIndex,
+                    filter, token);
+            return;
+        }
+
+        Map<Integer, CompletableFuture<Block>> ownedLoads = new HashMap<>();
+        Map<Integer, CompletableFuture<Block>> otherLoads = new HashMap<>();
+        List<Integer> blocksToLoad = new ArrayList<>();
+        for (int blockNumber : blockIds) {
+            String key = getBlockKey(zdKey, blockNumber, no);
+            Block cached = globalBlockCache.containsKey(key) ? globalBlockCache.get(key) : null;
+            if (cached != null) {
+                globalBlockList.add(cached);
+                continue;
+            }
+            CompletableFuture<Block> future = new CompletableFuture<>();
+            CompletableFuture<Block> existing = globalBlockCache.registerLoad(key, future);
+            if (existing == null) {
+                // another request may have finished this block between the cache check and registering
+                cached = globalBlockCache.containsKey(key) ? globalBlockCache.get(key) : null;
+                if (cached != null) {
+                    globalBlockCache.completeLoad(key, future, cached);
+                    globalBlockList.add(cached);
+                    continue;
+                }
+                ownedLoads.put(blockNumber, future);
+                blocksToLoad.add(blockNumber);
+            } else {
+                otherLoads.put(blockNumber, existing);
+            }
+        }
+
+        List<Block> loadedBlocks = new ArrayList<>();
+        try {
+            if (!blocksToLoad.isEmpty()) {
+                loadBlocks(loadedBlocks, blocksToLoad, no, modifier, zdKey, chrom1, chrom2, zoom, reader, blockIndex,
+                        null, token);
+            }
+        } finally {
+            for (Block b : loadedBlocks) {
+                CompletableFuture<Block> future = ownedLoads.remove(b.getNumber());
+                if (future != null) {
+                    globalBlockCache.completeLoad(getBlockKey(zdKey, b.getNumber(), no), future, b);
+                }
+            }
+            for (Map.Entry<Integer, CompletableFuture<Block>> entry : ownedLoads.entrySet()) {
+                String message = "Block " + entry.getKey() + " of " + zdKey;
+                // other requests waiting on a skipped block load it themselves
+                Throwable cause = token != null && token.shouldStop() ? new CancellationException(message + " skipped")
+                        : new IOException(message + " could not be loaded");
+                globalBlockCache.failLoad(getBlockKey(zdKey, entry.getKey(), no), entry.getValue(), cause);
+            }
+        }
+        globalBlockList.addAll(loadedBlocks);
+
+        int errors = 0;
+        Throwable firstError = null;
+        List<Integer> skippedByOthers = new ArrayList<>();
+        for (Map.Entry<Integer, CompletableFuture<Block>> entry : otherLoads.entrySet()) {
+            if (token != null && token.shouldStop()) {
+                token.addSkippedBlocks(1);
+                continue;
+            }
+            try {
+                if (token == null) {
+                    globalBlockList.add(entry.getValue().get());
+                } else {
+                    globalBlockList.add(waitForLoad(entry.getValue(), token));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (errors++ == 0) firstError = e;
+            } catch (ExecutionException e) {
+                if (errors++ == 0) firstError = e.getCause();
+            } catch (CancellationException e) {
+                skippedByOthers.add(entry.getKey());
+            } catch (TimeoutException e) {
+                token.addSkippedBlocks(1);
+            }
+        }
+        if (!skippedByOthers.isEmpty()) {
+            actuallyLoadGivenBlocks(globalBlockList, skippedByOthers, no, modifier, zdKey, chrom1, chrom2, zoom,
+                    globalBlockCache, reader, blockIndex, null, token);
+        }
+        if (errors > 0) {
+            throw loadFailure(errors + " errors while waiting for blocks of " + zdKey, firstError);
+        }
+    }
+
+    /**
+     * Waits for another request's load until it is done or the token is cancelled or expires
+     *
+     * @throws TimeoutException if the token stopped first
+     */
+    private static Block waitForLoad(CompletableFuture<Block> future, QueryToken token)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        while (true) {
+            if (token.shouldStop()) throw new TimeoutException();
+            long waitNanos = Math.min(token.getRemainingNanos(), TimeUnit.MILLISECONDS.toNanos(CANCEL_POLL_MILLIS));
+            try {
+                return future.get(waitNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // look at the token again
+            }
+        }
+    }
+
+    /**
+     * Waits for buffer permits, giving up when the token (if not null) is cancelled or expires
+     *
+     * @throws CancellationException if the token stopped first
+     */
+    static void acquirePermits(Semaphore permits, int numPermits, QueryToken token) {
+        if (token == null) {
+            permits.acquireUninterruptibly(numPermits);
+            return;
+        }
+        try {
+            while (!permits.tryAcquire(numPermits, CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (token.shouldStop()) throw new CancellationException("Buffer wait cancelled");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Buffer wait interrupted");
+        }
+    }
+
+    /**
+     * The exception thrown to the caller of a load in which some blocks failed
+     */
+    static RuntimeException loadFailure(String message, Throwable cause) {
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause instanceof IOException) return new UncheckedIOException(message, (IOException) cause);
+        return new UncheckedIOException(message, new IOException(cause));
+    }
+
+    private static void loadBlocks(final List<Block> globalBlockList, List<Integer> blockIds,
+                                   final NormalizationType no, BlockModifier modifier,
+                                   final String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                   DatasetReader reader, BlockIndices blockIndex, ContactFilter filter,
+                                   QueryToken token) {
+        if (token != null && token.shouldStop()) {
+            token.addSkippedBlocks(blockIds.size());
+            return;
+        }
+        if (VirtualThreadBlockLoader.isAvailable()) {
+            VirtualThreadBlockLoader.loadBlocks(globalBlockList, blockIds, no, modifier, zdKey, chrom1, chrom2, zoom,
+                    reader, blockIndex, filter, token);
+            return;
+        }
         final AtomicInteger errorCounter = new AtomicInteger();
+        final AtomicReference<Throwable> firstError = new AtomicReference<>();
         final Object listLock = new Object();
-        final Object cacheLock = new Object();
-        final Set<Block> globalBlockSet = new HashSet<>();
+        final List<Block> loadedBlocks = new ArrayList<>();
 
-        int numJobs = Math.min(blockIds.size(), 8);
-        AtomicInteger index = new AtomicInteger(0);
+        // stage 1 (I/O pool, or the caller on an I/O worker): read compressed bytes, holding buffer permits
+        // until the block is decoded; every block number yields exactly one ReadBlock (read, failed or skipped)
+        final LinkedBlockingQueue<ReadBlock> readBlocks = new LinkedBlockingQueue<>();
+        final int maxKB = (int) Math.max(Math.min(StrawGlobals.pipelineBufferBytes / 1024, Integer.MAX_VALUE), 1);
+        final Semaphore bufferPermits = new Semaphore(maxKB);
+        AtomicInteger readIndex = new AtomicInteger(0);
+        Runnable readTask = () -> {
+            int i = readIndex.getAndIncrement();
+            while (i < blockIds.size()) {
+                ReadBlock readBlock = new ReadBlock(blockIds.get(i));
+                try {
+                    if (token != null && token.shouldStop()) {
+                        readBlock.skipped = true;
+                    } else {
+                        IndexEntry idx = blockIndex.getBlock(readBlock.blockNumber);
+                        int kb = idx == null ? 1 : Math.min(idx.size / 1024 + 1, maxKB);
+                        acquirePermits(bufferPermits, kb, token);
+                        readBlock.numKB = kb;
+                        readBlock.compressedBytes = idx == null ? null
+                                : ReaderTools.readBlockBytes(idx, reader.getPath(), token);
+                    }
+                } catch (CancellationException e) {
+                    readBlock.skipped = true;
+                } catch (Throwable t) {
+                    readBlock.error = t;
+                } finally {
+                    readBlocks.add(readBlock);
+                }
+                i = readIndex.getAndIncrement();
+            }
+        };
 
-        ParallelizationTools.launchParallelizedCode(numJobs, () -> { //numJobs
+        // stage 2 (CPU pool): inflate, decode, normalize and modify
+        AtomicInteger remaining = new AtomicInteger(blockIds.size());
+        int numDecoders = Math.min(blockIds.size(), StrawGlobals.cpuParallelism);
+        Runnable decodeTask = () -> {
             List<Block> blockList = new ArrayList<>();
-            BlockCache blockCache = new BlockCache();
 
-            int i = index.getAndIncrement();
-            while (i < (blockIds).size()) {
-                int blockNumber = blockIds.get(i);
-                String key = getBlockKey(zdKey, blockNumber, no);
+            while (remaining.getAndDecrement() > 0) {
+                ReadBlock readBlock = takeUninterruptibly(readBlocks);
                 try {
-                    getBlockFromReader(blockList, no, modifier, zdKey, chrom1, chrom2, zoom, blockCache,
-                            reader, blockNumber, key, blockIndex.getBlock(blockNumber));
-                } catch (IOException e) {
-                    errorCounter.incrementAndGet();
+                    if (readBlock.skipped) {
+                        token.addSkippedBlocks(1);
+                    } else if (readBlock.error != null) {
+                        recordError(errorCounter, firstError, readBlock.error);
+                    } else {
+                        String key = getBlockKey(zdKey, readBlock.blockNumber, no);
+                        getBlockFromBytes(blockList, no, modifier, zdKey, chrom1, chrom2, zoom,
+                                reader, readBlock.blockNumber, key, readBlock.compressedBytes, filter);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    recordError(errorCounter, firstError, e);
+                } finally {
+                    bufferPermits.release(readBlock.numKB);
                 }
-                i = index.getAndIncrement();
             }
 
             synchronized (listLock) {
-                globalBlockSet.addAll(blockList);
+                loadedBlocks.addAll(blockList);
             }
             blockList.clear();
-            synchronized (cacheLock) {
-                globalBlockCache.addAll(blockCache);
+        };
+
+        if (ParallelizationTools.isIOWorker()) {
+            // already on the I/O pool (e.g. one task of a fan-out): reading here instead of waiting
+            // for nested I/O tasks keeps a saturated pool from starving itself
+            ParallelizationTools.launchParallelizedCode(numDecoders, decodeTask, readTask);
+        } else {
+            int numReaders = Math.min(blockIds.size(),
+                    IOConcurrencyController.getController(reader.getPath()).getLimit());
+            List<Future<?>> readers = new ArrayList<>(numReaders);
+            for (int r = 0; r < numReaders; r++) {
+                readers.add(ParallelizationTools.submitIO(Executors.callable(readTask)));
             }
-            blockCache.clear();
-        });
+            ParallelizationTools.launchParallelizedCode(numDecoders, decodeTask);
 
-        globalBlockList.addAll(globalBlockSet);
+            for (Future<?> future : readers) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    recordError(errorCounter, firstError, e.getCause());
+                }
+            }
+        }
+
+        globalBlockList.addAll(loadedBlocks);
+        if (errorCounter.get() > 0) {
+            throw loadFailure(errorCounter.get() + " errors while loading blocks for " + zdKey, firstError.get());
+        }
+    }
+
+    private static ReadBlock takeUninterruptibly(LinkedBlockingQueue<ReadBlock> readBlocks) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return readBlocks.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    static void recordError(AtomicInteger errorCounter, AtomicReference<Throwable> firstError, Throwable error) {
+        errorCounter.incrementAndGet();
+        firstError.compareAndSet(null, error);
     }
 
-    private static void getBlockFromReader(List<Block> blockList, NormalizationType no, BlockModifier modifier,
-                                           String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
-                                           BlockCache blockCache, DatasetReader reader,
-                                           int blockNumber, String key, IndexEntry idx) throws IOException {
-        Block b = reader.readNormalizedBlock(blockNumber, zdKey, no,
-                chrom1.getIndex(), chrom2.getIndex(), zoom, idx);
+    private static void getBlockFromBytes(List<Block> blockList, NormalizationType no, BlockModifier modifier,
+                                          String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                          DatasetReader reader,
+                                          int blockNumber, String key, byte[] compressedBytes,
+                                          ContactFilter filter) throws IOException {
+        Block b = reader.decodeNormalizedBlock(blockNumber, zdKey, no,
+                chrom1.getIndex(), chrom2.getIndex(), zoom, compressedBytes, filter);
         if (b == null) {
             b = new Block(blockNumber, key);
         }
         b = modifier.modify(b, key, zoom.getBinSize(), chrom1, chrom2);
-        blockCache.put(key, b);
         blockList.add(b);
     }
 
     public static String getBlockKey(String zdKey, int blockNumber, NormalizationType no) {
         return MatrixZoomData.triKey(zdKey, "" + blockNumber, "" + no);
     }
+
+    private static class ReadBlock {
+        final int blockNumber;
+        int numKB = 0;
+        byte[] compressedBytes = null;
+        Throwable error = null;
+        boolean skipped = false;
+
+        ReadBlock(int blockNumber) {
+            this.blockNumber = blockNumber;
+        }
+    }
 }
@@ -0,0 +1,203 @@
+package javastraw.reader.mzd;
+
+import javastraw.StrawGlobals;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.BlockSummary;
+import javastraw.reader.block.ContactFilter;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Summaries of every block of a matrix zoom data under one normalization, so that empty or weak
+ * blocks can be skipped, and coverage drawn, without reading them.
+ * <p>
+ * Built with one parallel scan over the blocks (which are not added to the block cache). If
+ * StrawGlobals.blockSummaryDirectory is set, the index is saved there as a .bsi file (written to a
+ * temporary file first, then renamed) and reused as long as the .hic file keeps its length and
+ * modification time.
+ */
+public class BlockSummaryIndex {
+
+    private static final int MAGIC = 0x42534931;
+
+    private final Map<Integer, BlockSummary> summaries;
+
+    private BlockSummaryIndex(Map<Integer, BlockSummary> summaries) {
+        this.summaries = summaries;
+    }
+
+    static BlockSummaryIndex loadOrBuild(MatrixZoomData zd, NormalizationType no) {
+        File file = getIndexFile(zd, no);
+        long[] stamp = getSourceStamp(zd.reader.getPath());
+        if (file != null && file.exists()) {
+            try {
+                BlockSummaryIndex index = load(file, stamp);
+                if (index != null) return index;
+            } catch (IOException e) {
+                System.err.println("Unable to read block summaries " + file.getPath() + "; rebuilding");
+            }
+        }
+        BlockSummaryIndex index = build(zd, no);
+        if (file != null) {
+            try {
+                index.save(file, stamp);
+            } catch (IOException e) {
+                System.err.println("Unable to save block summaries " + file.getPath());
+            }
+        }
+        return index;
+    }
+
+    static BlockSummaryIndex build(MatrixZoomData zd, NormalizationType no) {
+        List<Integer> blockNumbers = zd.getBlockNumbersInFileOrder();
+        Map<Integer, BlockSummary> summaries = new ConcurrentHashMap<>();
+        if (blockNumbers == null || blockNumbers.isEmpty()) return new BlockSummaryIndex(summaries);
+
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedIO(Math.min(blockNumbers.size(), StrawGlobals.ioParallelism), () -> {
+            int i = index.getAndIncrement();
+            while (i < blockNumbers.size()) {
+                int blockNumber = blockNumbers.get(i);
+                try {
+                    Block block = zd.getNormalizedBlock(blockNumber, no);
+                    summaries.put(blockNumber, BlockSummary.of(block));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                i = index.getAndIncrement();
+            }
+        });
+        return new BlockSummaryIndex(new HashMap<>(summaries));
+    }
+
+    /**
+     * @return null if the file was written for another version of the .hic file
+     */
+    private static BlockSummaryIndex load(File file, long[] stamp) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file.getPath() + " is not a block summary index");
+            }
+            if (in.readLong() != stamp[0] || in.readLong() != stamp[1]) return null;
+            int numBlocks = in.readInt();
+            Map<Integer, BlockSummary> summaries = new HashMap<>(numBlocks * 2);
+            for (int i = 0; i < numBlocks; i++) {
+                int blockNumber = in.readInt();
+                summaries.put(blockNumber, new BlockSummary(in.readInt(), in.readDouble(), in.readFloat(),
+                        in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+            return new BlockSummaryIndex(summaries);
+        }
+    }
+
+    /**
+     * Readers never see a partial file: the index is written next to its final name, then renamed
+     */
+    private void save(File file, long[] stamp) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory.getPath());
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            write(temp, stamp);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private void write(File file, long[] stamp) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(stamp[0]);
+            out.writeLong(stamp[1]);
+            out.writeInt(summaries.size());
+            for (Map.Entry<Integer, BlockSummary> entry : summaries.entrySet()) {
+                BlockSummary summary = entry.getValue();
+                out.writeInt(entry.getKey());
+                out.writeInt(summary.getNumRecords());
+                out.writeDouble(summary.getSum());
+                out.writeFloat(summary.getMax());
+                out.writeInt(summary.getMinBinX());
+                out.writeInt(summary.getMaxBinX());
+                out.writeInt(summary.getMinBinY());
+                out.writeInt(summary.getMaxBinY());
+            }
+        }
+    }
+
+    /**
+     * @return null if indexes are not saved (no summary directory)
+     */
+    private static File getIndexFile(MatrixZoomData zd, NormalizationType no) {
+        if (StrawGlobals.blockSummaryDirectory == null) return null;
+        File source = new File(zd.reader.getPath());
+        File directory = new File(StrawGlobals.blockSummaryDirectory);
+        String name = source.getName() + "." + zd.getKey() + "_" + no.getLabel() + ".bsi";
+        return new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    private static long[] getSourceStamp(String path) {
+        File source = new File(path);
+        return source.exists() ? new long[]{source.length(), source.lastModified()} : new long[]{-1, -1};
+    }
+
+    /**
+     * @return the summary of the block, or null if the block is not in the file
+     */
+    public BlockSummary get(int blockNumber) {
+        return summaries.get(blockNumber);
+    }
+
+    /**
+     * @return true if the block is known to hold no record passing the filter (any record if null)
+     */
+    public boolean canSkip(int blockNumber, ContactFilter filter) {
+        BlockSummary summary = summaries.get(blockNumber);
+        if (summary == null) return false;
+        return filter == null ? summary.isEmpty() : !summary.mayPass(filter);
+    }
+
+    /**
+     * @return sorted numbers of the blocks whose strongest record is at least minMax
+     */
+    public int[] getBlockNumbersWithMaxAtLeast(float minMax) {
+        List<Integer> blockNumbers = new ArrayList<>();
+        for (Map.Entry<Integer, BlockSummary> entry : summaries.entrySet()) {
+            if (!entry.getValue().isEmpty() && entry.getValue().getMax() >= minMax) {
+                blockNumbers.add(entry.getKey());
+            }
+        }
+        int[] result = new int[blockNumbers.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = blockNumbers.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return rough heap size: a map entry, a boxed key and a summary per block
+     */
+    public long getSizeInBytes() {
+        return 64 + 112L * summaries.size();
+    }
+
+    public Map<Integer, BlockSummary> getSummaries() {
+        return Collections.unmodifiableMap(summaries);
+    }
+}
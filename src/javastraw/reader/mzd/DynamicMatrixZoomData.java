@@ -25,12 +25,17 @@
 package javastraw.reader.mzd;
 
 import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactFilter;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.block.DynamicBlock;
+import javastraw.reader.block.QueryToken;
+import javastraw.reader.block.RegionQueryResult;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
 
+import java.nio.FloatBuffer;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class DynamicMatrixZoomData extends MatrixZoomData {
 
@@ -63,6 +68,38 @@ public class DynamicMatrixZoomData extends MatrixZoomData {
         return createBlocksForLowerRes(blocksFromHigherRes, norm);
     }
 
+    @Override
+    public List<Block> getNormalizedBlocksOverlapping(ContactFilter filter, final NormalizationType norm) {
+        List<Block> blocks = getNormalizedBlocksOverlapping(filter.getBinX1(), filter.getBinY1(),
+                filter.getBinX2(), filter.getBinY2(), norm, filter.getIncludeTranspose());
+        List<Block> filteredBlocks = new ArrayList<>(blocks.size());
+        for (Block b : blocks) {
+            filteredBlocks.add(filter.filter(b, getBlockKey(b.getNumber(), norm)));
+        }
+        return filteredBlocks;
+    }
+
+    @Override
+    public RegionQueryResult getNormalizedBlocksOverlapping(long binX1, long binY1, long binX2, long binY2,
+                                                            final NormalizationType norm, boolean fillUnderDiagonal,
+                                                            QueryToken token) {
+        RegionQueryResult higherRes = higherResZD.getNormalizedBlocksOverlapping(binX1 * scaleFactor,
+                binY1 * scaleFactor, binX2 * scaleFactor, binY2 * scaleFactor, norm, fillUnderDiagonal, token);
+        return new RegionQueryResult(createBlocksForLowerRes(higherRes.getBlocks(), norm), token);
+    }
+
+    @Override
+    public RegionQueryResult getNormalizedBlocksOverlapping(ContactFilter filter, final NormalizationType norm,
+                                                            QueryToken token) {
+        RegionQueryResult result = getNormalizedBlocksOverlapping(filter.getBinX1(), filter.getBinY1(),
+                filter.getBinX2(), filter.getBinY2(), norm, filter.getIncludeTranspose(), token);
+        List<Block> filteredBlocks = new ArrayList<>(result.getBlocks().size());
+        for (Block b : result.getBlocks()) {
+            filteredBlocks.add(filter.filter(b, getBlockKey(b.getNumber(), norm)));
+        }
+        return new RegionQueryResult(filteredBlocks, token);
+    }
+
     private List<Block> createBlocksForLowerRes(List<Block> highResBlocks, NormalizationType norm) {
 
         Map<Integer, Map<Integer, ContactRecord>> condensedRecords = new HashMap<>();
@@ -121,6 +158,80 @@ public class DynamicMatrixZoomData extends MatrixZoomData {
         return blockList;
     }
 
+    @Override
+    public float[][] getNormalizedRegions(long[] binXStarts, long[] binYStarts, int numRows, int numCols,
+                                          NormalizationType norm, boolean fillUnderDiagonal) {
+        float[][] regions = new float[binXStarts.length][numRows * numCols];
+        for (int r = 0; r < regions.length; r++) {
+            fillNormalizedTile(binXStarts[r], binYStarts[r], numRows, numCols, norm, fillUnderDiagonal,
+                    FloatBuffer.wrap(regions[r]), 0);
+        }
+        return regions;
+    }
+
+    /**
+     * Each pixel is the sum of its scaleFactor x scaleFactor pixels at the higher resolution
+     * (only those with binX <= binY on the diagonal of intra maps, as the records are stored)
+     */
+    @Override
+    public float[] getValues(int[] binXs, int[] binYs, NormalizationType norm) {
+        int perPixel = scaleFactor * scaleFactor;
+        int[] higherXs = new int[binXs.length * perPixel];
+        int[] higherYs = new int[binXs.length * perPixel];
+        boolean[] use = new boolean[binXs.length * perPixel];
+        for (int i = 0; i < binXs.length; i++) {
+            int binX = isIntra ? Math.min(binXs[i], binYs[i]) : binXs[i];
+            int binY = isIntra ? Math.max(binXs[i], binYs[i]) : binYs[i];
+            for (int dx = 0; dx < scaleFactor; dx++) {
+                for (int dy = 0; dy < scaleFactor; dy++) {
+                    int k = i * perPixel + dx * scaleFactor + dy;
+                    higherXs[k] = binX * scaleFactor + dx;
+                    higherYs[k] = binY * scaleFactor + dy;
+                    use[k] = !isIntra || higherXs[k] <= higherYs[k];
+                }
+            }
+        }
+        float[] higherValues = higherResZD.getValues(higherXs, higherYs, norm);
+        float[] values = new float[binXs.length];
+        for (int k = 0; k < higherValues.length; k++) {
+            if (use[k]) values[k / perPixel] += higherValues[k];
+        }
+        return values;
+    }
+
+    /**
+     * Blocks are aggregated from the higher resolution, so the band is taken from a region query over
+     * the whole matrix with the distance range applied
+     */
+    @Override
+    public List<Block> getNormalizedBlocksInBand(long minDistance, long maxDistance, NormalizationType norm) {
+        long maxBin = chr1.getLength() / zoom.getBinSize();
+        ContactFilter filter = new ContactFilter(0, 0, maxBin, maxBin, true)
+                .setDistanceRange(minDistance, maxDistance);
+        return getNormalizedBlocksOverlapping(filter, norm);
+    }
+
+    /**
+     * The band comes from a single region query, so it is one batch
+     */
+    @Override
+    public void forEachBlockBatchInBand(long maxDistance, NormalizationType norm, Consumer<List<Block>> consumer) {
+        consumer.accept(getNormalizedBlocksInBand(0, maxDistance, norm));
+    }
+
+    /**
+     * Blocks are aggregated from the higher resolution, so the tile is filled from the region query
+     */
+    @Override
+    public void fillNormalizedTile(long binXStart, long binYStart, int numRows, int numCols, NormalizationType norm,
+                                   boolean fillUnderDiagonal, FloatBuffer out, int offset) {
+        TileExtractor.clearTile(out, offset, numRows, numCols);
+        ContactFilter filter = TileExtractor.getTileFilter(binXStart, binYStart, numRows, numCols, fillUnderDiagonal);
+        for (Block b : getNormalizedBlocksOverlapping(filter, norm)) {
+            TileExtractor.writeRecords(b, out, offset, binXStart, binYStart, numRows, numCols, fillUnderDiagonal);
+        }
+    }
+
     @Override
     public void printFullDescription() {
         System.out.println("Dynamic Resolution Chromosome: " + chr1.getName() + " - " + chr2.getName());
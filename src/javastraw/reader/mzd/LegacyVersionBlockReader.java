@@ -5,6 +5,8 @@ import javastraw.reader.basics.Chromosome;
 import javastraw.reader.block.Block;
 import javastraw.reader.block.BlockIndices;
 import javastraw.reader.block.BlockModifier;
+import javastraw.reader.block.ContactFilter;
+import javastraw.reader.block.QueryToken;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
 
@@ -28,8 +30,31 @@ public class LegacyVersionBlockReader {
                                                         int blockBinCount, int blockColumnCount, BlockCache blockCache,
                                                         String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
                                                         DatasetReader reader, BlockIndices blockIndices) {
+        return addNormalizedBlocksToList(blockList, binX1, binY1, binX2, binY2, norm, getBelowDiagonal, modifier,
+                blockBinCount, blockColumnCount, blockCache, zdKey, chrom1, chrom2, zoom, reader, blockIndices, null);
+    }
 
-        Set<Integer> blocksToLoad = new HashSet<>();
+    public static List<Block> addNormalizedBlocksToList(final List<Block> blockList, int binX1, int binY1,
+                                                        int binX2, int binY2, final NormalizationType norm,
+                                                        boolean getBelowDiagonal, BlockModifier modifier,
+                                                        int blockBinCount, int blockColumnCount, BlockCache blockCache,
+                                                        String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                                        DatasetReader reader, BlockIndices blockIndices,
+                                                        ContactFilter filter) {
+        return addNormalizedBlocksToList(blockList, binX1, binY1, binX2, binY2, norm, getBelowDiagonal, modifier,
+                blockBinCount, blockColumnCount, blockCache, zdKey, chrom1, chrom2, zoom, reader, blockIndices,
+                filter, null);
+    }
+
+    public static List<Block> addNormalizedBlocksToList(final List<Block> blockList, int binX1, int binY1,
+                                                        int binX2, int binY2, final NormalizationType norm,
+                                                        boolean getBelowDiagonal, BlockModifier modifier,
+                                                        int blockBinCount, int blockColumnCount, BlockCache blockCache,
+                                                        String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                                        DatasetReader reader, BlockIndices blockIndices,
+                                                        ContactFilter filter, QueryToken token) {
+
+        List<Integer> blocksToLoad = new ArrayList<>();
 
         // have to do this regardless (just in case)
         int col1 = binX1 / blockBinCount;
@@ -37,38 +62,57 @@ public class LegacyVersionBlockReader {
         int col2 = binX2 / blockBinCount;
         int row2 = binY2 / blockBinCount;
 
+        for (int blockNumber : getBlockNumbersForRegion(row1, row2, col1, col2, blockColumnCount,
+                getBelowDiagonal && binY1 < binX2)) {
+            populateBlocksToLoad(blockNumber, norm, blockList, blocksToLoad, blockCache, zdKey, filter);
+        }
+
+        BlockLoader.actuallyLoadGivenBlocks(blockList, blocksToLoad, norm, modifier, zdKey,
+                chrom1, chrom2, zoom, blockCache, reader, blockIndices, filter, token);
+
+        return blockList;
+    }
+
+    /**
+     * Block numbers in the grid rows [row1, row2] and columns [col1, col2], and optionally
+     * the transposed grid cells as well; no block number is listed twice.
+     *
+     * @return sorted, distinct block numbers
+     */
+    static int[] getBlockNumbersForRegion(int row1, int row2, int col1, int col2, int blockColumnCount,
+                                                  boolean includeTranspose) {
+        int numCells = (row2 - row1 + 1) * (col2 - col1 + 1);
+        int[] blockNumbers = new int[includeTranspose ? 2 * numCells : numCells];
+        int numBlocks = 0;
         for (int r = row1; r <= row2; r++) {
             for (int c = col1; c <= col2; c++) {
-                populateBlocksToLoad(r, c, norm, blockList, blocksToLoad, blockColumnCount,
-                        blockCache, zdKey);
+                blockNumbers[numBlocks++] = r * blockColumnCount + c;
             }
         }
-
-        if (getBelowDiagonal && binY1 < binX2) {
+        if (includeTranspose) {
             for (int r = row1; r <= row2; r++) {
                 for (int c = col1; c <= col2; c++) {
-                    populateBlocksToLoad(c, r, norm, blockList, blocksToLoad, blockColumnCount,
-                            blockCache, zdKey);
+                    // already listed if the transposed cell falls inside the original grid range
+                    if (c >= row1 && c <= row2 && r >= col1 && r <= col2) continue;
+                    blockNumbers[numBlocks++] = c * blockColumnCount + r;
                 }
             }
         }
-
-        BlockLoader.actuallyLoadGivenBlocks(blockList, new ArrayList<>(blocksToLoad), norm, modifier, zdKey,
-                chrom1, chrom2, zoom, blockCache, reader, blockIndices);
-
-        return new ArrayList<>(new HashSet<>(blockList));
+        blockNumbers = Arrays.copyOf(blockNumbers, numBlocks);
+        Arrays.sort(blockNumbers);
+        return blockNumbers;
     }
 
-    protected static void populateBlocksToLoad(int r, int c, NormalizationType no, List<Block> blockList,
-                                               Set<Integer> blocksToLoad, int blockColumnCount,
-                                               BlockCache blockCache,
-                                               String zdKey) {
-        int blockNumber = r * blockColumnCount + c;
+    protected static void populateBlocksToLoad(int blockNumber, NormalizationType no, List<Block> blockList,
+                                               List<Integer> blocksToLoad, BlockCache blockCache,
+                                               String zdKey, ContactFilter filter) {
+        BlockSummaryIndex summaries = blockCache.getBlockSummariesIfPresent(no);
+        if (summaries != null && summaries.canSkip(blockNumber, filter)) return;
         String key = BlockLoader.getBlockKey(zdKey, blockNumber, no);
         Block b;
         if (blockCache.containsKey(key)) {
             b = blockCache.get(key);
-            blockList.add(b);
+            blockList.add(filter == null ? b : filter.filter(b, key));
         } else {
             blocksToLoad.add(blockNumber);
         }
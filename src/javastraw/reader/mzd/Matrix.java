@@ -27,9 +27,17 @@ package javastraw.reader.mzd;
 
 import javastraw.reader.IntPair;
 import javastraw.reader.basics.Chromosome;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.QueryToken;
+import javastraw.reader.block.ReadPriority;
 import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.MatrixTools;
+import javastraw.tools.ParallelizationTools;
 
+import java.nio.FloatBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class Matrix {
 
@@ -211,6 +219,69 @@ public class Matrix {
         toDelete.clear();
     }
 
+    /**
+     * The genomic rectangle [start1, end1] x [start2, end2] (in the zoom's unit) at several zooms at once.
+     * Every level is loaded concurrently; the coarsest is submitted first and reads at interactive priority,
+     * so it can be shown while the finer ones are still loading. Zooms not available for this matrix
+     * are left out of the map.
+     *
+     * @return per zoom, the blocks overlapping the rectangle, completing as soon as that level is loaded
+     */
+    public Map<HiCZoom, CompletableFuture<List<Block>>> getNormalizedBlocksAtZooms(long start1, long end1,
+                                                                                 long start2, long end2,
+                                                                                 Collection<HiCZoom> zooms,
+                                                                                 NormalizationType no,
+                                                                                 boolean fillUnderDiagonal) {
+        List<MatrixZoomData> levels = new ArrayList<>();
+        for (HiCZoom zoom : zooms) {
+            MatrixZoomData zd = getZoomData(zoom);
+            if (zd != null && zd.getBinSize() == zoom.getBinSize()) levels.add(zd);
+        }
+        levels.sort(comparator);
+
+        Map<HiCZoom, CompletableFuture<List<Block>>> results = new LinkedHashMap<>();
+        for (int i = 0; i < levels.size(); i++) {
+            MatrixZoomData zd = levels.get(i);
+            QueryToken token = new QueryToken().setPriority(i == 0 ? ReadPriority.INTERACTIVE : ReadPriority.NORMAL);
+            int binSize = zd.getBinSize();
+            results.put(zd.getZoom(), CompletableFuture.supplyAsync(() ->
+                    zd.getNormalizedBlocksOverlapping(start1 / binSize, start2 / binSize, end1 / binSize,
+                            end2 / binSize, no, fillUnderDiagonal, token).getBlocks(),
+                    ParallelizationTools.getIOExecutor()));
+        }
+        return results;
+    }
+
+    /**
+     * Same as getNormalizedBlocksAtZooms, with every level as a dense [rows][cols] matrix whose (0, 0)
+     * entry is the bin holding (start1, start2)
+     */
+    public Map<HiCZoom, CompletableFuture<float[][]>> getNormalizedRegionAtZooms(long start1, long end1,
+                                                                               long start2, long end2,
+                                                                               Collection<HiCZoom> zooms,
+                                                                               NormalizationType no,
+                                                                               boolean fillUnderDiagonal) {
+        Map<HiCZoom, CompletableFuture<float[][]>> results = new LinkedHashMap<>();
+        for (Map.Entry<HiCZoom, CompletableFuture<List<Block>>> entry : getNormalizedBlocksAtZooms(start1, end1,
+                start2, end2, zooms, no, fillUnderDiagonal).entrySet()) {
+            int binSize = entry.getKey().getBinSize();
+            long binXStart = start1 / binSize;
+            long binYStart = start2 / binSize;
+            int numRows = (int) (end1 / binSize - binXStart + 1);
+            int numCols = (int) (end2 / binSize - binYStart + 1);
+            results.put(entry.getKey(), entry.getValue().thenApply(blocks -> {
+                float[] data = new float[numRows * numCols];
+                FloatBuffer buffer = FloatBuffer.wrap(data);
+                for (Block b : blocks) {
+                    TileExtractor.writeRecords(b, buffer, 0, binXStart, binYStart, numRows, numCols,
+                            fillUnderDiagonal);
+                }
+                return MatrixTools.reshapeFlatMatrix(data, numRows, numCols);
+            }));
+        }
+        return results;
+    }
+
     private void tryToClear(MatrixZoomData mzd) {
         try {
             mzd.clearCache();
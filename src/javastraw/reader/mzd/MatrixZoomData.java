@@ -25,20 +25,31 @@
 
 package javastraw.reader.mzd;
 
+import javastraw.StrawGlobals;
 import javastraw.matrices.BasicMatrix;
 import javastraw.reader.DatasetReader;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.block.*;
+import javastraw.reader.datastructures.ComputeOnceCache;
 import javastraw.reader.depth.LogDepth;
 import javastraw.reader.depth.V9Depth;
 import javastraw.reader.expected.ExpectedValueFunction;
 import javastraw.reader.iterators.ContactRecordIterator;
+import javastraw.reader.iterators.ContactRecordSpliterator;
 import javastraw.reader.pearsons.PearsonsManager;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationHandler;
 import javastraw.reader.type.NormalizationType;
 
+import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class MatrixZoomData {
 
@@ -53,9 +64,10 @@ public class MatrixZoomData {
     // Cache the last 20 blocks loaded
     protected final BlockCache blockCache;
     protected final V9Depth v9Depth;
-    protected final Map<NormalizationType, BasicMatrix> pearsonsMap;
+    protected final ComputeOnceCache<NormalizationType, BasicMatrix> pearsonsMap;
     protected DatasetReader reader;
-    protected final Map<String, double[]> eigenvectorMap;
+    protected final ComputeOnceCache<String, double[]> eigenvectorMap;
+    protected final ComputeOnceCache<String, SummedAreaTable> summedAreaTables;
     protected final BlockModifier identity = new IdentityModifier();
     protected final double sumCounts;
     protected final BlockIndices blockIndices;
@@ -96,8 +108,9 @@ public class MatrixZoomData {
         } else {
             correctedBinCount = blockBinCount;
         }
-        pearsonsMap = new HashMap<>();
-        eigenvectorMap = new HashMap<>();
+        pearsonsMap = new ComputeOnceCache<>(0, false, 8);
+        eigenvectorMap = new ComputeOnceCache<>(0, false, 8);
+        summedAreaTables = new ComputeOnceCache<>(0, false, 8);
         blockCache.setUseCache(useCache);
     }
 
@@ -115,6 +128,7 @@ public class MatrixZoomData {
         this.reader = zd0.reader;
         this.pearsonsMap = zd0.pearsonsMap;
         this.eigenvectorMap = zd0.eigenvectorMap;
+        this.summedAreaTables = zd0.summedAreaTables;
         this.blockIndices = zd0.blockIndices;
     }
 
@@ -187,16 +201,293 @@ public class MatrixZoomData {
 
     public List<Block> getNormalizedBlocksOverlapping(long binX1, long binY1, long binX2, long binY2,
                                                       final NormalizationType no, boolean fillUnderDiagonal, BlockModifier modifier) {
+        return loadBlocksOverlapping((int) binX1, (int) binY1, (int) binX2, (int) binY2, no, fillUnderDiagonal,
+                modifier, null, null);
+    }
+
+    /**
+     * Same as getNormalizedBlocksOverlapping, but stops reading blocks once the token is cancelled or
+     * its deadline has passed; blocks read by then are still decoded and cached.
+     *
+     * @return the blocks loaded, and whether the result is complete, cancelled or timed out
+     */
+    public RegionQueryResult getNormalizedBlocksOverlapping(long binX1, long binY1, long binX2, long binY2,
+                                                            final NormalizationType no, boolean fillUnderDiagonal,
+                                                            QueryToken token) {
+        List<Block> blocks = loadBlocksOverlapping((int) binX1, (int) binY1, (int) binX2, (int) binY2, no,
+                fillUnderDiagonal, identity, null, token);
+        return new RegionQueryResult(blocks, token);
+    }
+
+    /**
+     * Return the blocks overlapping the filter's rectangle, holding only the records that pass the
+     * filter: count, distance and mask predicates are pushed down into decoding, while for a filter
+     * that only sets the rectangle whole blocks are cached and then clipped to it.
+     * The region under the diagonal is included if the filter includes the transpose.
+     */
+    public List<Block> getNormalizedBlocksOverlapping(ContactFilter filter, final NormalizationType no) {
+        return getNormalizedBlocksOverlapping(filter, no, identity);
+    }
+
+    public List<Block> getNormalizedBlocksOverlapping(ContactFilter filter, final NormalizationType no,
+                                                      BlockModifier modifier) {
+        return loadBlocksOverlapping((int) filter.getBinX1(), (int) filter.getBinY1(), (int) filter.getBinX2(),
+                (int) filter.getBinY2(), no, filter.getIncludeTranspose(), modifier, filter, null);
+    }
+
+    public RegionQueryResult getNormalizedBlocksOverlapping(ContactFilter filter, final NormalizationType no,
+                                                            QueryToken token) {
+        List<Block> blocks = loadBlocksOverlapping((int) filter.getBinX1(), (int) filter.getBinY1(),
+                (int) filter.getBinX2(), (int) filter.getBinY2(), no, filter.getIncludeTranspose(), identity,
+                filter, token);
+        return new RegionQueryResult(blocks, token);
+    }
+
+    private List<Block> loadBlocksOverlapping(int binX1, int binY1, int binX2, int binY2, NormalizationType no,
+                                              boolean fillUnderDiagonal, BlockModifier modifier,
+                                              ContactFilter filter, QueryToken token) {
         final List<Block> blockList = Collections.synchronizedList(new ArrayList<>());
         if (reader.getVersion() > 8 && isIntra) {
-            return V9IntraBlockReader.addNormalizedBlocksToListV9(blockList, (int) binX1, (int) binY1,
-                    (int) binX2, (int) binY2, no, modifier, blockBinCount, v9Depth,
-                    blockColumnCount, blockCache, getKey(), chr1, chr2, zoom, reader, blockIndices);
+            return V9IntraBlockReader.addNormalizedBlocksToListV9(blockList, binX1, binY1, binX2, binY2,
+                    no, modifier, blockBinCount, v9Depth, blockColumnCount, blockCache, getKey(),
+                    chr1, chr2, zoom, reader, blockIndices, filter, token);
         } else {
-            return LegacyVersionBlockReader.addNormalizedBlocksToList(blockList, (int) binX1, (int) binY1, (int) binX2,
-                    (int) binY2, no, fillUnderDiagonal, modifier, blockBinCount, blockColumnCount, blockCache,
-                    getKey(), chr1, chr2, zoom, reader, blockIndices);
+            return LegacyVersionBlockReader.addNormalizedBlocksToList(blockList, binX1, binY1, binX2, binY2,
+                    no, fillUnderDiagonal, modifier, blockBinCount, blockColumnCount, blockCache,
+                    getKey(), chr1, chr2, zoom, reader, blockIndices, filter, token);
+        }
+    }
+
+    /**
+     * Block numbers overlapping the (inclusive) bin rectangle, and its transpose if includeTranspose
+     *
+     * @return sorted, distinct block numbers
+     */
+    public int[] getBlockNumbersOverlapping(long binX1, long binY1, long binX2, long binY2, boolean includeTranspose) {
+        if (reader.getVersion() > 8 && isIntra) {
+            return V9IntraBlockReader.getBlockNumbersForRegionFromBinPosition(binX1, binX2, binY1, binY2,
+                    blockBinCount, blockColumnCount, v9Depth);
+        }
+        int col1 = (int) (binX1 / blockBinCount);
+        int row1 = (int) (binY1 / blockBinCount);
+        int col2 = (int) (binX2 / blockBinCount);
+        int row2 = (int) (binY2 / blockBinCount);
+        return LegacyVersionBlockReader.getBlockNumbersForRegion(row1, row2, col1, col2, blockColumnCount,
+                includeTranspose && binY1 < binX2);
+    }
+
+    /**
+     * Blocks of an intra-chromosomal map holding cells with minDistance <= |binX - binY| <= maxDistance:
+     * the depth range for v9 files, the block grid diagonals for older ones
+     *
+     * @return sorted, distinct numbers of the blocks present in the file
+     */
+    public int[] getBlockNumbersInBand(long minDistance, long maxDistance) {
+        long maxBin = chr1.getLength() / zoom.getBinSize();
+        List<Integer> blockNumbers = new ArrayList<>();
+        if (reader.getVersion() > 8 && isIntra) {
+            int nearerDepth = v9Depth.getDepth(0L, minDistance);
+            int furtherDepth = v9Depth.getDepth(0L, maxDistance);
+            int higherPAD = (int) Math.min(maxBin / blockBinCount, blockColumnCount - 1);
+            for (int depth = nearerDepth; depth <= furtherDepth; depth++) {
+                for (int pad = 0; pad <= higherPAD; pad++) {
+                    blockNumbers.add(V9IntraBlockReader.getBlockNumberVersion9FromPADAndDepth(pad, depth,
+                            blockColumnCount));
+                }
+            }
+        } else {
+            // a grid diagonal k holds distances (k - 1) * blockBinCount + 1 to (k + 1) * blockBinCount - 1
+            long lowK = Math.max((minDistance + 1 + blockBinCount - 1) / blockBinCount - 1, 0);
+            long highK = (maxDistance + blockBinCount - 1) / blockBinCount;
+            int maxCell = (int) Math.min(maxBin / blockBinCount, blockColumnCount - 1);
+            for (int r = 0; r <= maxCell; r++) {
+                for (int c = 0; c <= maxCell; c++) {
+                    int k = Math.abs(c - r);
+                    if (k >= lowK && k <= highK) {
+                        blockNumbers.add(r * blockColumnCount + c);
+                    }
+                }
+            }
+        }
+        if (blockIndices != null) {
+            // empty cells of the grid are not in the file, and would only be cached as empty blocks
+            blockNumbers.removeIf(n -> blockIndices.getBlock(n) == null);
+        }
+        int[] result = new int[blockNumbers.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = blockNumbers.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Contacts with minDistance <= |binX - binY| <= maxDistance; only the blocks intersecting the band
+     * are read, and records outside of it are dropped while decoding
+     */
+    public List<Block> getNormalizedBlocksInBand(long minDistance, long maxDistance, NormalizationType no) {
+        return getNormalizedBlocksInBand(getBlockNumbersInBand(minDistance, maxDistance), minDistance,
+                maxDistance, no);
+    }
+
+    private List<Block> getNormalizedBlocksInBand(int[] blockNumbers, long minDistance, long maxDistance,
+                                                  NormalizationType no) {
+        long maxBin = chr1.getLength() / zoom.getBinSize();
+        ContactFilter filter = new ContactFilter(0, 0, maxBin, maxBin, true)
+                .setDistanceRange(minDistance, maxDistance);
+        List<Block> blockList = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> blocksToLoad = new ArrayList<>();
+        for (int blockNumber : blockNumbers) {
+            LegacyVersionBlockReader.populateBlocksToLoad(blockNumber, no, blockList, blocksToLoad, blockCache,
+                    getKey(), filter);
         }
+        BlockLoader.actuallyLoadGivenBlocks(blockList, blocksToLoad, no, identity, getKey(), chr1, chr2, zoom,
+                blockCache, reader, blockIndices, filter, null);
+        return blockList;
+    }
+
+    /**
+     * Band of width maxDistance in diagonal-major layout: result[d][i] is the contact between bins i
+     * and i + d (0 if there is none). Blocks are loaded a batch at a time, so only the arrays are
+     * held in full.
+     */
+    public float[][] getNormalizedBandByDiagonal(long maxDistance, NormalizationType no) {
+        float[][] band = newBand(maxDistance);
+        forEachBlockBatchInBand(maxDistance, no, blocks -> addToBand(band, blocks));
+        return band;
+    }
+
+    /**
+     * Hands the blocks of the band of width maxDistance to the consumer one batch at a time, so that
+     * only a batch of blocks is held at once; records are restricted to the band
+     */
+    public void forEachBlockBatchInBand(long maxDistance, NormalizationType no, Consumer<List<Block>> consumer) {
+        int[] blockNumbers = getBlockNumbersInBand(0, maxDistance);
+        int batchSize = Math.max(StrawGlobals.cpuParallelism, 1) * 4;
+        for (int start = 0; start < blockNumbers.length; start += batchSize) {
+            int[] batch = Arrays.copyOfRange(blockNumbers, start, Math.min(start + batchSize, blockNumbers.length));
+            consumer.accept(getNormalizedBlocksInBand(batch, 0, maxDistance, no));
+        }
+    }
+
+    protected float[][] newBand(long maxDistance) {
+        int n = (int) (chr1.getLength() / zoom.getBinSize() + 1);
+        int numDiagonals = (int) Math.min(maxDistance + 1, n);
+        float[][] band = new float[numDiagonals][];
+        for (int d = 0; d < numDiagonals; d++) {
+            band[d] = new float[n - d];
+        }
+        return band;
+    }
+
+    protected static void addToBand(float[][] band, List<Block> blocks) {
+        for (Block b : blocks) {
+            if (b == null) continue;
+            for (ContactRecord rec : b.getContactRecords()) {
+                int d = Math.abs(rec.getBinX() - rec.getBinY());
+                int i = Math.min(rec.getBinX(), rec.getBinY());
+                if (d < band.length && i < band[d].length) {
+                    band[d][i] = rec.getCounts();
+                }
+            }
+        }
+    }
+
+    /**
+     * Summed-area table of the band of width maxDistance, built on first use and kept with the
+     * zoom data (its buffers count against the MemoryGovernor budget and are freed once it is evicted
+     * or the cache cleared, and collected); see SummedAreaTable.build to persist one
+     */
+    public SummedAreaTable getSummedAreaTable(NormalizationType no, int maxDistance) {
+        return summedAreaTables.get(no.getLabel() + "_" + maxDistance,
+                key -> SummedAreaTable.build(this, no, maxDistance));
+    }
+
+    /**
+     * @return the number of the block that would hold the record (binX, binY) as stored in the file
+     */
+    public int getBlockNumberForBin(int binX, int binY) {
+        if (reader.getVersion() > 8 && isIntra) {
+            int pad = (binX + binY) / 2 / blockBinCount;
+            return V9IntraBlockReader.getBlockNumberVersion9FromPADAndDepth(pad, v9Depth.getDepth(binX, binY),
+                    blockColumnCount);
+        }
+        return (binY / blockBinCount) * blockColumnCount + binX / blockBinCount;
+    }
+
+    /**
+     * Values of many single pixels, aligned with the input (0 where there is no contact); every block
+     * is read once for all the pixels it holds. For intra maps (binX, binY) and (binY, binX) are the same pixel.
+     */
+    public float[] getValues(int[] binXs, int[] binYs, NormalizationType no) {
+        return PointLookup.getValues(this, binXs, binYs, no, isIntra);
+    }
+
+    /**
+     * Virtual 4C: for the anchor bins [anchorStart, anchorEnd] of anchorChr (either chromosome of this map),
+     * the summed contacts with every bin of the other chromosome; for intra maps the contacts below
+     * the diagonal are mirrored in. Only the block row and column holding the anchor are read.
+     *
+     * @throws IllegalArgumentException if anchorChr is neither chromosome of this map
+     */
+    public float[] getViewpointProfile(Chromosome anchorChr, long anchorStart, long anchorEnd, NormalizationType no) {
+        if (anchorChr.getIndex() != chr1.getIndex() && anchorChr.getIndex() != chr2.getIndex()) {
+            throw new IllegalArgumentException(anchorChr.getName() + " is not a chromosome of " + getKey());
+        }
+        boolean anchorOnX = anchorChr.getIndex() == chr1.getIndex();
+        Chromosome other = anchorOnX ? chr2 : chr1;
+        int n = (int) (other.getLength() / zoom.getBinSize() + 1);
+        float[] profile = new float[n];
+
+        ContactFilter filter = anchorOnX ? new ContactFilter(anchorStart, 0, anchorEnd, n - 1, isIntra)
+                : new ContactFilter(0, anchorStart, n - 1, anchorEnd, false);
+        for (Block b : getNormalizedBlocksOverlapping(filter, no)) {
+            if (b == null) continue;
+            for (ContactRecord rec : b.getContactRecords()) {
+                int x = rec.getBinX();
+                int y = rec.getBinY();
+                if (anchorOnX) {
+                    if (x >= anchorStart && x <= anchorEnd && y < n) {
+                        profile[y] += rec.getCounts();
+                    }
+                    if (isIntra && x != y && y >= anchorStart && y <= anchorEnd && x < n) {
+                        profile[x] += rec.getCounts();
+                    }
+                } else if (y >= anchorStart && y <= anchorEnd && x < n) {
+                    profile[x] += rec.getCounts();
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Batch of numRows x numCols regions starting at (binXStarts[i], binYStarts[i]), each returned
+     * row-major as in fillNormalizedTile. The union of their blocks is read once, in file order,
+     * instead of once per region.
+     */
+    public float[][] getNormalizedRegions(long[] binXStarts, long[] binYStarts, int numRows, int numCols,
+                                          NormalizationType no, boolean fillUnderDiagonal) throws IOException {
+        return BatchRegionLoader.getRegions(this, binXStarts, binYStarts, numRows, numCols, no, fillUnderDiagonal,
+                getKey(), blockCache, reader, blockIndices, getChr1Idx(), getChr2Idx(), zoom);
+    }
+
+    /**
+     * Writes the numRows x numCols region starting at (binXStart, binYStart) into out, row-major from
+     * offset, with 0 where there are no contacts; with fillUnderDiagonal, records are mirrored as well.
+     * Blocks are decoded in parallel straight into the buffer.
+     */
+    public void fillNormalizedTile(long binXStart, long binYStart, int numRows, int numCols, NormalizationType no,
+                                   boolean fillUnderDiagonal, FloatBuffer out, int offset) throws IOException {
+        int[] blockNumbers = getBlockNumbersOverlapping(binXStart, binYStart, binXStart + numRows - 1,
+                binYStart + numCols - 1, fillUnderDiagonal);
+        TileExtractor.fillTile(out, offset, binXStart, binYStart, numRows, numCols, no, fillUnderDiagonal,
+                blockNumbers, getKey(), blockCache, reader, blockIndices, getChr1Idx(), getChr2Idx(), zoom);
+    }
+
+    public void fillNormalizedTile(long binXStart, long binYStart, int numRows, int numCols, NormalizationType no,
+                                   boolean fillUnderDiagonal, float[] out, int offset) throws IOException {
+        fillNormalizedTile(binXStart, binYStart, numRows, numCols, no, fillUnderDiagonal, FloatBuffer.wrap(out), offset);
     }
 
     /**
@@ -219,7 +510,7 @@ public class MatrixZoomData {
     /**
      * For a specified region, select the block numbers corresponding to it
      */
-    protected List<Integer> getBlockNumbersForRegionFromGenomePosition(long[] regionIndices) {
+    protected int[] getBlockNumbersForRegionFromGenomePosition(long[] regionIndices) {
         int resolution = zoom.getBinSize();
         long[] regionBinIndices = new long[4];
         for (int i = 0; i < regionBinIndices.length; i++) {
@@ -228,13 +519,18 @@ public class MatrixZoomData {
         return getBlockNumbersForRegionFromBinPosition(regionBinIndices);
     }
 
-    private List<Integer> getBlockNumbersForRegionFromBinPosition(long[] regionBinIndices) {
+    private int[] getBlockNumbersForRegionFromBinPosition(long[] regionBinIndices) {
         if (reader.getVersion() > 8 && isIntra) {
             return V9IntraBlockReader.getBlockNumbersForRegionFromBinPosition(regionBinIndices,
                     blockBinCount, blockColumnCount, v9Depth);
         } else {
-            return LegacyVersionBlockReader.getBlockNumbersForRegionFromBinPosition(regionBinIndices,
-                    blockBinCount, blockColumnCount, isIntra);
+            List<Integer> blockNumbers = LegacyVersionBlockReader.getBlockNumbersForRegionFromBinPosition(
+                    regionBinIndices, blockBinCount, blockColumnCount, isIntra);
+            int[] result = new int[blockNumbers.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = blockNumbers.get(i);
+            }
+            return result;
         }
     }
 
@@ -246,8 +542,10 @@ public class MatrixZoomData {
 
     void clearCache() {
         blockCache.clear();
+        blockCache.clearBlockSummaries();
         pearsonsMap.clear();
         eigenvectorMap.clear();
+        summedAreaTables.clear();
         if (blockIndices != null) blockIndices.clearCache();
     }
 
@@ -261,6 +559,83 @@ public class MatrixZoomData {
         return blockSize;
     }
 
+    public List<Integer> getBlockNumbersInFileOrder() {
+        return blockIndices == null ? null : blockIndices.getBlockNumbersInFileOrder();
+    }
+
+    /**
+     * Per-block record count, sum, max and extent under this normalization, loaded from the saved index
+     * (if StrawGlobals.blockSummaryDirectory is set) or built with one scan on first use; once built,
+     * region queries skip the blocks it rules out.
+     *
+     * @return null for dynamic resolutions
+     */
+    public BlockSummaryIndex getBlockSummaries(NormalizationType no) {
+        if (blockIndices == null || reader == null) return null;
+        return blockCache.getBlockSummaries(no, n -> BlockSummaryIndex.loadOrBuild(this, n));
+    }
+
+    /**
+     * Single block through the block cache: read once (single flight) and kept for later calls
+     */
+    public Block getCachedNormalizedBlock(int blockNumber, NormalizationType no) throws IOException {
+        String key = getBlockKey(blockNumber, no);
+        if (blockCache.containsKey(key)) {
+            return blockCache.get(key);
+        }
+        if (!blockCache.getUseCache()) {
+            return getNormalizedBlock(blockNumber, no);
+        }
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        CompletableFuture<Block> other = blockCache.registerLoad(key, future);
+        if (other != null) {
+            try {
+                return other.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+        }
+        try {
+            Block b = reader.readNormalizedBlock(blockNumber, getKey(), no, getChr1Idx(), getChr2Idx(), zoom,
+                    blockIndices.getBlock(blockNumber));
+            if (b == null) {
+                b = new Block(blockNumber, key);
+            }
+            blockCache.completeLoad(key, future, b);
+            return b;
+        } catch (IOException | RuntimeException e) {
+            blockCache.failLoad(key, future, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Single block, taken from the cache if present; does not add it to the cache
+     */
+    public Block getNormalizedBlock(int blockNumber, NormalizationType no) throws IOException {
+        String key = getBlockKey(blockNumber, no);
+        if (blockCache.containsKey(key)) {
+            return blockCache.get(key);
+        }
+        return reader.readNormalizedBlock(blockNumber, getKey(), no, getChr1Idx(), getChr2Idx(), zoom,
+                blockIndices.getBlock(blockNumber));
+    }
+
+    /**
+     * All contact records, split on block boundaries for use with parallel()
+     */
+    public Stream<ContactRecord> contacts(NormalizationType no) {
+        return StreamSupport.stream(ContactRecordSpliterator.forMatrix(this, no), false);
+    }
+
+    /**
+     * Counts of all contact records, e.g. for parallel sums or histograms
+     */
+    public DoubleStream counts(NormalizationType no) {
+        return contacts(no).mapToDouble(ContactRecord::getCounts);
+    }
+
     public Iterator<ContactRecord> getDirectIterator() {
         return new ContactRecordIterator(reader, blockIndices, getKey(), blockCache,
                 getChr1Idx(), getChr2Idx(), getZoom(), NormalizationHandler.NONE);
@@ -271,27 +646,63 @@ public class MatrixZoomData {
                 getChr1Idx(), getChr2Idx(), getZoom(), normType);
     }
 
+    /**
+     * @param inBlockNumberOrder visit blocks by increasing block number instead of their order in the file
+     */
+    public Iterator<ContactRecord> getNormalizedIterator(NormalizationType normType, boolean inBlockNumberOrder) {
+        return new ContactRecordIterator(reader, blockIndices, getKey(), blockCache,
+                getChr1Idx(), getChr2Idx(), getZoom(), normType, inBlockNumberOrder);
+    }
+
+    /**
+     * @param priority priority class of the iterator's block reads
+     */
+    public Iterator<ContactRecord> getNormalizedIterator(NormalizationType normType, ReadPriority priority) {
+        return new ContactRecordIterator(reader, blockIndices, getKey(), blockCache,
+                getChr1Idx(), getChr2Idx(), getZoom(), normType).setPriority(priority);
+    }
+
+    /**
+     * @param prefetchWindow    max number of reads issued ahead of the consumer
+     * @param prefetchMemoryCap max compressed bytes being read ahead
+     */
+    public Iterator<ContactRecord> getNormalizedIterator(NormalizationType normType, boolean inBlockNumberOrder,
+                                                        int prefetchWindow, long prefetchMemoryCap,
+                                                        ReadPriority priority) {
+        return new ContactRecordIterator(reader, blockIndices, getKey(), blockCache,
+                getChr1Idx(), getChr2Idx(), getZoom(), normType, inBlockNumberOrder,
+                prefetchWindow, prefetchMemoryCap).setPriority(priority);
+    }
+
+    /**
+     * @return total compressed size of all blocks, or 0 if the block index is not fully loaded
+     */
+    public long getCompressedSize() {
+        List<Integer> blockNumbers = blockIndices == null ? null : blockIndices.getBlockNumbers();
+        if (blockNumbers == null) return 0;
+        long total = 0;
+        for (int blockNumber : blockNumbers) {
+            Integer size = getBlockSize(blockNumber);
+            if (size != null) total += size;
+        }
+        return total;
+    }
+
     public BasicMatrix getPearsons(ExpectedValueFunction df) {
         if (chr1.getIndex() != chr2.getIndex()) {
             throw new RuntimeException("Cannot compute pearsons for non-diagonal matrices");
         }
 
-        BasicMatrix pearsons = pearsonsMap.get(df.getNormalizationType());
-        if (pearsons != null) {
-            return pearsons;
-        }
-
-        pearsons = PearsonsManager.computePearsons(df, getDirectIterator(), chr1, zoom.getBinSize());
-        pearsonsMap.put(df.getNormalizationType(), pearsons);
-        return pearsonsMap.get(df.getNormalizationType());
+        return pearsonsMap.get(df.getNormalizationType(),
+                type -> PearsonsManager.computePearsons(df, getDirectIterator(), chr1, zoom.getBinSize()));
     }
 
     protected BasicMatrix getPearsons(NormalizationType type) {
-        return pearsonsMap.get(type);
+        return pearsonsMap.getIfPresent(type);
     }
 
     public float getPearsonValue(int binX, int binY, NormalizationType type) {
-        BasicMatrix pearsons = pearsonsMap.get(type);
+        BasicMatrix pearsons = pearsonsMap.getIfPresent(type);
         if (pearsons != null) {
             return pearsons.getEntry(binX, binY);
         } else {
@@ -306,19 +717,13 @@ public class MatrixZoomData {
 
         String eigKey = getEigenvectorKey(df.getNormalizationType(), which);
 
-        double[] eig = eigenvectorMap.get(eigKey);
-        if (eig != null) {
-            return eig;
-        }
-
-        BasicMatrix pearsons = getPearsons(df);
-        if (pearsons == null) {
-            return null;
-        }
-
-        eig = PearsonsManager.computeEigenvector(pearsons, which);
-        eigenvectorMap.put(eigKey, eig);
-        return eigenvectorMap.get(eigKey);
+        return eigenvectorMap.get(eigKey, key -> {
+            BasicMatrix pearsons = getPearsons(df);
+            if (pearsons == null) {
+                return null;
+            }
+            return PearsonsManager.computeEigenvector(pearsons, which);
+        });
     }
 
     protected String getEigenvectorKey(NormalizationType normalizationType, int which) {
@@ -326,6 +731,6 @@ public class MatrixZoomData {
     }
 
     protected double[] getEigenvector(NormalizationType normalizationType, int which) {
-        return eigenvectorMap.get(getEigenvectorKey(normalizationType, which));
+        return eigenvectorMap.getIfPresent(getEigenvectorKey(normalizationType, which));
     }
 }
@@ -0,0 +1,73 @@
+package javastraw.reader.mzd;
+
+import javastraw.StrawGlobals;
+import javastraw.reader.block.Block;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch lookup of single pixels: the queries are grouped by block, each block is loaded once (through
+ * the block cache, so later lookups in the same blocks do not read again) and its records are sorted by
+ * (binY, binX) so that every query of the group is a binary search.
+ */
+class PointLookup {
+
+    static float[] getValues(MatrixZoomData zd, int[] binXs, int[] binYs, NormalizationType no, boolean isIntra) {
+        int n = binXs.length;
+        float[] values = new float[n];
+        if (n == 0) return values;
+
+        // intra-chromosomal records are stored with binX <= binY
+        int[] queryX = new int[n];
+        int[] queryY = new int[n];
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            boolean swap = isIntra && binXs[i] > binYs[i];
+            queryX[i] = swap ? binYs[i] : binXs[i];
+            queryY[i] = swap ? binXs[i] : binYs[i];
+            order[i] = ((long) zd.getBlockNumberForBin(queryX[i], queryY[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        // start of each group of queries that share a block
+        int[] groupStarts = new int[n + 1];
+        int numGroups = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || (order[i] >>> 32) != (order[i - 1] >>> 32)) {
+                groupStarts[numGroups++] = i;
+            }
+        }
+        groupStarts[numGroups] = n;
+
+        final int totalGroups = numGroups;
+        AtomicInteger groupIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedIO(Math.min(totalGroups, StrawGlobals.ioParallelism), () -> {
+            int g = groupIndex.getAndIncrement();
+            while (g < totalGroups) {
+                int start = groupStarts[g];
+                int end = groupStarts[g + 1];
+                int blockNumber = (int) (order[start] >>> 32);
+                Block block;
+                try {
+                    block = zd.getCachedNormalizedBlock(blockNumber, no);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (block != null) {
+                    SortedRecords records = SortedRecords.byBinY(block.getContactRecords());
+                    for (int k = start; k < end; k++) {
+                        int i = (int) order[k];
+                        values[i] = records.get(queryY[i], queryX[i]);
+                    }
+                }
+                g = groupIndex.getAndIncrement();
+            }
+        });
+        return values;
+    }
+}
@@ -0,0 +1,90 @@
+package javastraw.reader.mzd;
+
+import javastraw.reader.block.ContactRecord;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records of one block sorted by (major, minor) bin, with major either binY or binX, for binary
+ * search of single pixels or of rectangles
+ */
+class SortedRecords {
+
+    interface Visitor {
+        void visit(int major, int minor, float counts);
+    }
+
+    private final long[] keys;
+    private final float[] counts;
+
+    private SortedRecords(List<ContactRecord> records, boolean binYMajor) {
+        int n = records.size();
+        keys = new long[n];
+        counts = new float[n];
+        boolean isSorted = true;
+        for (int i = 0; i < n; i++) {
+            ContactRecord rec = records.get(i);
+            keys[i] = binYMajor ? key(rec.getBinY(), rec.getBinX()) : key(rec.getBinX(), rec.getBinY());
+            counts[i] = rec.getCounts();
+            if (i > 0 && keys[i] < keys[i - 1]) isSorted = false;
+        }
+        if (isSorted) return;
+
+        // blocks are usually decoded row by row already; otherwise sort the keys and, as they are unique
+        // within a block, put every count at the position of its key
+        long[] unsortedKeys = keys.clone();
+        float[] unsortedCounts = counts.clone();
+        Arrays.sort(keys);
+        for (int i = 0; i < n; i++) {
+            counts[Arrays.binarySearch(keys, unsortedKeys[i])] = unsortedCounts[i];
+        }
+    }
+
+    static SortedRecords byBinY(List<ContactRecord> records) {
+        return new SortedRecords(records, true);
+    }
+
+    static SortedRecords byBinX(List<ContactRecord> records) {
+        return new SortedRecords(records, false);
+    }
+
+    private static long key(int major, int minor) {
+        return ((long) major << 32) | (minor & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the counts at (major, minor), or 0 if there is no record
+     */
+    float get(int major, int minor) {
+        int idx = Arrays.binarySearch(keys, key(major, minor));
+        return idx < 0 ? 0 : counts[idx];
+    }
+
+    /**
+     * Visits the records with major in [majorLo, majorHi] and minor in [minorLo, minorHi]
+     */
+    void forEachIn(int majorLo, int majorHi, int minorLo, int minorHi, Visitor visitor) {
+        majorLo = Math.max(majorLo, 0);
+        minorLo = Math.max(minorLo, 0);
+        int i = lowerBound(key(majorLo, minorLo));
+        while (i < keys.length) {
+            int major = (int) (keys[i] >>> 32);
+            if (major > majorHi) return;
+            int minor = (int) keys[i];
+            if (minor > minorHi) {
+                i = lowerBound(key(major + 1, minorLo));
+                continue;
+            }
+            if (minor >= minorLo) {
+                visitor.visit(major, minor, counts[i]);
+            }
+            i++;
+        }
+    }
+
+    private int lowerBound(long target) {
+        int idx = Arrays.binarySearch(keys, target);
+        return idx < 0 ? -idx - 1 : idx;
+    }
+}
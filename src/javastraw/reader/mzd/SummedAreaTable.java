@@ -0,0 +1,239 @@
+package javastraw.reader.mzd;
+
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Summed-area table of the band |binX - binY| <= maxDistance of an intra-chromosomal map, so that the
+ * sum of the normalized contacts over any rectangle of bins is four lookups.
+ * <p>
+ * Only the prefix sums at the cells of the band are stored, numBins * (2 * maxDistance + 1) doubles: the
+ * prefix sum at any other cell equals the one at a cell of the band, as entries outside the band count
+ * as 0. A rectangle that sticks out of the band is thus summed over its part within the band; with
+ * maxDistance >= numBins - 1 the table covers the whole map (fine at coarse resolutions).
+ * Values are kept off-heap, in direct buffers or mapped from a file written by build; the buffers are
+ * freed when the table is garbage collected.
+ */
+public class SummedAreaTable {
+
+    private static final int MAGIC = 0x53415431;
+    private static final int HEADER_SIZE = 16;
+
+    private final int numBins, maxDistance, width;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+
+    private SummedAreaTable(int numBins, int maxDistance, FileChannel channel, boolean writable) throws IOException {
+        this.numBins = numBins;
+        this.maxDistance = maxDistance;
+        this.width = 2 * maxDistance + 1;
+        this.rowsPerChunk = Math.max(Integer.MAX_VALUE / 8 / width, 1);
+        int numChunks = (numBins + rowsPerChunk - 1) / rowsPerChunk;
+        this.chunks = new ByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int numRows = Math.min(rowsPerChunk, numBins - c * rowsPerChunk);
+            long size = (long) numRows * width * 8;
+            if (channel == null) {
+                chunks[c] = ByteBuffer.allocateDirect((int) size);
+            } else {
+                long position = HEADER_SIZE + (long) c * rowsPerChunk * width * 8;
+                chunks[c] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        position, size);
+            }
+        }
+    }
+
+    /**
+     * Table held in direct memory
+     */
+    public static SummedAreaTable build(MatrixZoomData zd, NormalizationType no, int maxDistance) {
+        try {
+            return build(zd, no, maxDistance, null);
+        } catch (IOException e) {
+            // only file-backed tables do I/O
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Table written to (and mapped from) file, to be reopened later with load; in direct memory if
+     * file is null. The blocks of the band are written straight into the table a batch at a time,
+     * and the sums are then computed in place, so the band is never held on the heap.
+     */
+    public static SummedAreaTable build(MatrixZoomData zd, NormalizationType no, int maxDistance,
+                                        File file) throws IOException {
+        if (zd.getChr1Idx() != zd.getChr2Idx()) {
+            throw new RuntimeException("Cannot compute summed-area table for non-diagonal matrices");
+        }
+        int numBins = (int) (zd.getChr1().getLength() / zd.getBinSize() + 1);
+        SummedAreaTable table = allocate(numBins, maxDistance, file);
+        zd.forEachBlockBatchInBand(table.maxDistance, no, blocks -> {
+            for (Block b : blocks) {
+                if (b != null) table.addRecords(b.getContactRecords());
+            }
+        });
+        table.finish(file != null);
+        return table;
+    }
+
+    /**
+     * Table of the given records (intra-chromosomal, each cell once), e.g. for tests
+     */
+    static SummedAreaTable fromRecords(int numBins, int maxDistance, List<ContactRecord> records,
+                                       File file) throws IOException {
+        SummedAreaTable table = allocate(numBins, maxDistance, file);
+        table.addRecords(records);
+        table.finish(file != null);
+        return table;
+    }
+
+    /**
+     * Zeroed table, with maxDistance capped to the size of the map
+     */
+    private static SummedAreaTable allocate(int numBins, int maxDistance, File file) throws IOException {
+        int w = Math.max(Math.min(maxDistance, numBins - 1), 0);
+        if (file == null) {
+            return new SummedAreaTable(numBins, w, null, true);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0); // drop the values of an older table
+            raf.setLength(HEADER_SIZE + (long) numBins * (2 * w + 1) * 8);
+            raf.writeInt(MAGIC);
+            raf.writeInt(numBins);
+            raf.writeInt(w);
+            return new SummedAreaTable(numBins, w, raf.getChannel(), true);
+        }
+    }
+
+    public static SummedAreaTable load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.readInt() != MAGIC) {
+                throw new IOException(file.getPath() + " is not a summed-area table");
+            }
+            int numBins = raf.readInt();
+            int maxDistance = raf.readInt();
+            if (raf.length() < HEADER_SIZE + (long) numBins * (2 * maxDistance + 1) * 8) {
+                throw new IOException(file.getPath() + " is truncated");
+            }
+            return new SummedAreaTable(numBins, maxDistance, raf.getChannel(), false);
+        }
+    }
+
+    /**
+     * Stores each record, and its mirror under the diagonal, at its cell of the band
+     */
+    private void addRecords(List<ContactRecord> records) {
+        for (ContactRecord rec : records) {
+            int x = rec.getBinX(), y = rec.getBinY();
+            if (x < 0 || y < 0 || x >= numBins || y >= numBins || Math.abs(x - y) > maxDistance) continue;
+            set(x, y, rec.getCounts());
+            set(y, x, rec.getCounts());
+        }
+    }
+
+    private void finish(boolean isMapped) {
+        computeRowPrefixSums();
+        accumulateRows();
+        if (isMapped) {
+            for (ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+    }
+
+    /**
+     * Each row of the band, independently, is replaced by its running sum; rows are split over the CPU pool
+     */
+    private void computeRowPrefixSums() {
+        int rowsPerTask = 256;
+        AtomicInteger nextRow = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int start = nextRow.getAndAdd(rowsPerTask);
+            while (start < numBins) {
+                int end = Math.min(start + rowsPerTask, numBins);
+                for (int i = start; i < end; i++) {
+                    double sum = 0;
+                    for (int j = Math.max(i - maxDistance, 0); j <= Math.min(i + maxDistance, numBins - 1); j++) {
+                        sum += get(i, j);
+                        set(i, j, sum);
+                    }
+                }
+                start = nextRow.getAndAdd(rowsPerTask);
+            }
+        });
+    }
+
+    /**
+     * S(i, j) = S(i - 1, j) + rowPrefix(i, j), one row after the other
+     */
+    private void accumulateRows() {
+        for (int i = 1; i < numBins; i++) {
+            for (int j = Math.max(i - maxDistance, 0); j <= Math.min(i + maxDistance, numBins - 1); j++) {
+                set(i, j, getPrefixSum(i, j) + getPrefixSum(i - 1, j));
+            }
+        }
+    }
+
+    /**
+     * Sum of the entries (i, j) with x1 <= i <= x2 and y1 <= j <= y2 (inclusive, in bins) within the band
+     */
+    public double rectSum(long x1, long y1, long x2, long y2) {
+        if (x1 > x2 || y1 > y2) return 0;
+        return getPrefixSum(x2, y2) - getPrefixSum(x1 - 1, y2) - getPrefixSum(x2, y1 - 1)
+                + getPrefixSum(x1 - 1, y1 - 1);
+    }
+
+    /**
+     * Sum of the entries (a, b) with a <= i and b <= j, read at the cell of the band with the same sum
+     */
+    private double getPrefixSum(long i, long j) {
+        if (i < 0 || j < 0) return 0;
+        i = Math.min(i, numBins - 1);
+        j = Math.min(j, numBins - 1);
+        long row = Math.min(i, j + maxDistance);
+        long col = Math.min(j, i + maxDistance);
+        return get((int) row, (int) col);
+    }
+
+    private double get(int i, int j) {
+        return chunks[i / rowsPerChunk].getDouble(getByteOffset(i, j));
+    }
+
+    private void set(int i, int j, double value) {
+        chunks[i / rowsPerChunk].putDouble(getByteOffset(i, j), value);
+    }
+
+    private int getByteOffset(int i, int j) {
+        return ((i % rowsPerChunk) * width + (j - i + maxDistance)) * 8;
+    }
+
+    /**
+     * @return bytes of the direct or mapped buffers holding the table
+     */
+    public long getSizeInBytes() {
+        long size = 64;
+        for (ByteBuffer chunk : chunks) {
+            size += chunk.capacity();
+        }
+        return size;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+}
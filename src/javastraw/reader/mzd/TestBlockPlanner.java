@@ -0,0 +1,113 @@
+package javastraw.reader.mzd;
+
+import javastraw.reader.depth.V9Depth;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the block planners against brute force: every block holding a cell of the query rectangle
+ * must be planned, and (for v9) every planned block must hold one. Exits with status 1 on failure.
+ */
+public class TestBlockPlanner {
+
+    private static final int BLOCK_BIN_COUNT = 16;
+    private static final int BLOCK_COLUMN_COUNT = 64;
+    private static final int NUM_BINS = BLOCK_BIN_COUNT * BLOCK_COLUMN_COUNT;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        int failures = 0;
+        for (V9Depth depth : new V9Depth[]{V9Depth.setDepthMethod(2, BLOCK_BIN_COUNT),
+                V9Depth.setDepthMethod(-3, BLOCK_BIN_COUNT)}) {
+            for (int i = 0; i < 2000; i++) {
+                failures += checkV9(depth, randomRegion(random, i % 2 == 0));
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            failures += checkLegacy(randomRegion(random, i % 2 == 0), i % 3 != 0);
+        }
+
+        if (failures > 0) {
+            System.err.println(failures + " planner checks failed");
+            System.exit(1);
+        }
+        System.out.println("Block planner checks passed");
+    }
+
+    /**
+     * @return {binX1, binX2, binY1, binY2}, crossing the diagonal or far from it
+     */
+    private static long[] randomRegion(Random random, boolean nearDiagonal) {
+        int width = 1 + random.nextInt(3 * BLOCK_BIN_COUNT);
+        int height = 1 + random.nextInt(3 * BLOCK_BIN_COUNT);
+        int x1 = random.nextInt(NUM_BINS - width);
+        int y1;
+        if (nearDiagonal) {
+            y1 = Math.max(0, Math.min(NUM_BINS - height - 1, x1 + random.nextInt(2 * BLOCK_BIN_COUNT) - BLOCK_BIN_COUNT));
+        } else {
+            y1 = random.nextInt(NUM_BINS - height);
+        }
+        return new long[]{x1, x1 + width - 1, y1, y1 + height - 1};
+    }
+
+    private static int checkV9(V9Depth depth, long[] region) {
+        int[] planned = V9IntraBlockReader.getBlockNumbersForRegionFromBinPosition(region[0], region[1],
+                region[2], region[3], BLOCK_BIN_COUNT, BLOCK_COLUMN_COUNT, depth);
+        Set<Integer> expected = new HashSet<>();
+        for (long x = region[0]; x <= region[1]; x++) {
+            for (long y = region[2]; y <= region[3]; y++) {
+                int pad = (int) ((x + y) / 2 / BLOCK_BIN_COUNT);
+                expected.add(depth.getDepth(x, y) * BLOCK_COLUMN_COUNT + pad);
+            }
+        }
+        return compare("v9", region, planned, expected, true);
+    }
+
+    private static int checkLegacy(long[] region, boolean includeTranspose) {
+        int col1 = (int) (region[0] / BLOCK_BIN_COUNT);
+        int col2 = (int) (region[1] / BLOCK_BIN_COUNT);
+        int row1 = (int) (region[2] / BLOCK_BIN_COUNT);
+        int row2 = (int) (region[3] / BLOCK_BIN_COUNT);
+        int[] planned = LegacyVersionBlockReader.getBlockNumbersForRegion(row1, row2, col1, col2,
+                BLOCK_COLUMN_COUNT, includeTranspose);
+        Set<Integer> expected = new HashSet<>();
+        for (long x = region[0]; x <= region[1]; x++) {
+            for (long y = region[2]; y <= region[3]; y++) {
+                expected.add(getLegacyBlockNumber(x, y));
+                if (includeTranspose) expected.add(getLegacyBlockNumber(y, x));
+            }
+        }
+        return compare("legacy", region, planned, expected, true);
+    }
+
+    private static int getLegacyBlockNumber(long binX, long binY) {
+        return (int) ((binY / BLOCK_BIN_COUNT) * BLOCK_COLUMN_COUNT + binX / BLOCK_BIN_COUNT);
+    }
+
+    private static int compare(String layout, long[] region, int[] planned, Set<Integer> expected, boolean exact) {
+        Set<Integer> plannedSet = new HashSet<>();
+        for (int i = 0; i < planned.length; i++) {
+            plannedSet.add(planned[i]);
+            if (i > 0 && planned[i] <= planned[i - 1]) {
+                System.err.println(layout + " " + Arrays.toString(region) + ": not sorted and distinct");
+                return 1;
+            }
+        }
+        if (!plannedSet.containsAll(expected)) {
+            Set<Integer> missing = new HashSet<>(expected);
+            missing.removeAll(plannedSet);
+            System.err.println(layout + " " + Arrays.toString(region) + ": missing blocks " + missing);
+            return 1;
+        }
+        if (exact && !expected.containsAll(plannedSet)) {
+            Set<Integer> extra = new HashSet<>(plannedSet);
+            extra.removeAll(expected);
+            System.err.println(layout + " " + Arrays.toString(region) + ": blocks without cells " + extra);
+            return 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,103 @@
+package javastraw.reader.mzd;
+
+import javastraw.reader.block.ContactRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks SummedAreaTable.rectSum against brute force on small synthetic bands, for rectangles inside
+ * the band, sticking out of it, and touching or crossing the edges of the map; in direct memory and
+ * mapped from file. Exits with status 1 on failure.
+ */
+public class TestSummedAreaTable {
+
+    private static final int NUM_BINS = 60;
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(0);
+        int failures = 0;
+        for (int maxDistance : new int[]{0, 1, 7, NUM_BINS - 1, NUM_BINS + 10}) {
+            float[][] matrix = randomBand(random, maxDistance);
+            List<ContactRecord> records = toRecords(matrix);
+
+            failures += check(SummedAreaTable.fromRecords(NUM_BINS, maxDistance, records, null),
+                    matrix, random, "direct, maxDistance " + maxDistance);
+
+            File file = File.createTempFile("sat", ".bin");
+            file.deleteOnExit();
+            SummedAreaTable.fromRecords(NUM_BINS, maxDistance, records, file);
+            failures += check(SummedAreaTable.load(file), matrix, random, "mapped, maxDistance " + maxDistance);
+        }
+
+        if (failures > 0) {
+            System.err.println(failures + " summed-area table checks failed");
+            System.exit(1);
+        }
+        System.out.println("Summed-area table checks passed");
+    }
+
+    /**
+     * Symmetric matrix, nonzero only within the band (and there for about three cells in four)
+     */
+    private static float[][] randomBand(Random random, int maxDistance) {
+        float[][] matrix = new float[NUM_BINS][NUM_BINS];
+        for (int i = 0; i < NUM_BINS; i++) {
+            for (int j = i; j < NUM_BINS && j - i <= maxDistance; j++) {
+                if (random.nextInt(4) == 0) continue;
+                matrix[i][j] = matrix[j][i] = 1 + random.nextInt(100) / 4f;
+            }
+        }
+        return matrix;
+    }
+
+    private static List<ContactRecord> toRecords(float[][] matrix) {
+        List<ContactRecord> records = new ArrayList<>();
+        for (int i = 0; i < NUM_BINS; i++) {
+            for (int j = i; j < NUM_BINS; j++) {
+                if (matrix[i][j] != 0) records.add(new ContactRecord(i, j, matrix[i][j]));
+            }
+        }
+        return records;
+    }
+
+    private static int check(SummedAreaTable table, float[][] matrix, Random random, String label) {
+        int failures = 0;
+        // whole map, rows and columns at the edges, single cells in the corners
+        long[][] fixed = {{0, 0, NUM_BINS - 1, NUM_BINS - 1}, {-5, -5, NUM_BINS + 5, NUM_BINS + 5},
+                {0, 0, 0, NUM_BINS - 1}, {NUM_BINS - 1, 0, NUM_BINS - 1, NUM_BINS - 1},
+                {0, NUM_BINS - 1, NUM_BINS - 1, NUM_BINS - 1}, {0, 0, 0, 0},
+                {NUM_BINS - 1, NUM_BINS - 1, NUM_BINS - 1, NUM_BINS - 1}, {0, NUM_BINS - 1, 0, NUM_BINS - 1},
+                {5, 4, 4, 5}};
+        for (long[] rect : fixed) {
+            failures += compare(table, matrix, rect, label);
+        }
+        for (int k = 0; k < 3000; k++) {
+            long x1 = random.nextInt(NUM_BINS + 10) - 5;
+            long y1 = random.nextInt(NUM_BINS + 10) - 5;
+            long x2 = x1 + random.nextInt(NUM_BINS / 2);
+            long y2 = y1 + random.nextInt(NUM_BINS / 2);
+            failures += compare(table, matrix, new long[]{x1, y1, x2, y2}, label);
+        }
+        return failures;
+    }
+
+    private static int compare(SummedAreaTable table, float[][] matrix, long[] rect, String label) {
+        double expected = 0;
+        for (long i = Math.max(rect[0], 0); i <= Math.min(rect[2], NUM_BINS - 1); i++) {
+            for (long j = Math.max(rect[1], 0); j <= Math.min(rect[3], NUM_BINS - 1); j++) {
+                expected += matrix[(int) i][(int) j];
+            }
+        }
+        double actual = table.rectSum(rect[0], rect[1], rect[2], rect[3]);
+        if (Math.abs(actual - expected) > 1e-6 * Math.max(1, Math.abs(expected))) {
+            System.err.println(label + ": rectSum(" + rect[0] + ", " + rect[1] + ", " + rect[2] + ", " + rect[3]
+                    + ") = " + actual + ", expected " + expected);
+            return 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,114 @@
+package javastraw.reader.mzd;
+
+import javastraw.reader.DatasetReader;
+import javastraw.reader.ReaderTools;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.BlockIndices;
+import javastraw.reader.block.ContactFilter;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.block.IndexEntry;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Writes a region of a matrix straight into a row-major float buffer.
+ * <p>
+ * Every block is read on the I/O pool and decoded on the CPU pool, with the tile bounds pushed down
+ * into decoding, and its records are written into the buffer by the task that decoded it; no block
+ * list or intermediate matrix is built. Blocks belong to disjoint cells, so the tasks write disjoint
+ * entries (apart from mirrored diagonal cells, which get the same value either way).
+ */
+class TileExtractor {
+
+    static void fillTile(FloatBuffer out, int offset, long binXStart, long binYStart, int numRows, int numCols,
+                         NormalizationType no, boolean fillUnderDiagonal, int[] blockNumbers,
+                         String zdKey, BlockCache blockCache, DatasetReader reader, BlockIndices blockIndices,
+                         int chr1Idx, int chr2Idx, HiCZoom zoom) throws IOException {
+
+        clearTile(out, offset, numRows, numCols);
+        ContactFilter filter = getTileFilter(binXStart, binYStart, numRows, numCols, fillUnderDiagonal);
+
+        BlockSummaryIndex summaries = blockCache.getBlockSummariesIfPresent(no);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int blockNumber : blockNumbers) {
+            if (summaries != null && summaries.canSkip(blockNumber, filter)) continue;
+            String key = BlockLoader.getBlockKey(zdKey, blockNumber, no);
+            Block cached = blockCache.containsKey(key) ? blockCache.get(key) : null;
+            if (cached != null) {
+                futures.add(CompletableFuture.runAsync(() ->
+                                writeRecords(cached, out, offset, binXStart, binYStart, numRows, numCols, fillUnderDiagonal),
+                        ParallelizationTools.getCPUExecutor()));
+                continue;
+            }
+
+            IndexEntry idx = blockIndices == null ? null : blockIndices.getBlock(blockNumber);
+            if (idx == null) continue;
+
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return ReaderTools.readBlockBytes(idx, reader.getPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ParallelizationTools.getIOExecutor()).thenAcceptAsync(compressedBytes -> {
+                try {
+                    Block b = reader.decodeNormalizedBlock(blockNumber, zdKey, no, chr1Idx, chr2Idx, zoom,
+                            compressedBytes, filter);
+                    writeRecords(b, out, offset, binXStart, binYStart, numRows, numCols, fillUnderDiagonal);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ParallelizationTools.getCPUExecutor()));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) cause = cause.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    static void clearTile(FloatBuffer out, int offset, int numRows, int numCols) {
+        for (int i = 0; i < numRows * numCols; i++) {
+            out.put(offset + i, 0);
+        }
+    }
+
+    static ContactFilter getTileFilter(long binXStart, long binYStart, int numRows, int numCols,
+                                       boolean fillUnderDiagonal) {
+        return new ContactFilter(binXStart, binYStart, binXStart + numRows - 1, binYStart + numCols - 1,
+                fillUnderDiagonal);
+    }
+
+    static void writeRecords(Block b, FloatBuffer out, int offset, long binXStart, long binYStart,
+                             int numRows, int numCols, boolean fillUnderDiagonal) {
+        if (b == null) return;
+        for (ContactRecord rec : b.getContactRecords()) {
+            long relativeX = rec.getBinX() - binXStart;
+            long relativeY = rec.getBinY() - binYStart;
+            if (relativeX >= 0 && relativeX < numRows && relativeY >= 0 && relativeY < numCols) {
+                out.put(offset + (int) (relativeX * numCols + relativeY), rec.getCounts());
+            }
+
+            if (fillUnderDiagonal) {
+                relativeX = rec.getBinY() - binXStart;
+                relativeY = rec.getBinX() - binYStart;
+                if (relativeX >= 0 && relativeX < numRows && relativeY >= 0 && relativeY < numCols) {
+                    out.put(offset + (int) (relativeX * numCols + relativeY), rec.getCounts());
+                }
+            }
+        }
+    }
+}
@@ -5,14 +5,15 @@ import javastraw.reader.basics.Chromosome;
 import javastraw.reader.block.Block;
 import javastraw.reader.block.BlockIndices;
 import javastraw.reader.block.BlockModifier;
+import javastraw.reader.block.ContactFilter;
+import javastraw.reader.block.QueryToken;
 import javastraw.reader.depth.V9Depth;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 public class V9IntraBlockReader {
     public static List<Block> addNormalizedBlocksToListV9(final List<Block> blockList, int binX1, int binY1, int binX2, int binY2,
@@ -21,31 +22,54 @@ public class V9IntraBlockReader {
                                                           int blockColumnCount, BlockCache blockCache, String zdKey,
                                                           Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
                                                           DatasetReader reader, BlockIndices blockIndex) {
-        List<Integer> blockNumbersToLoad = getBlockNumbersForRegionFromBinPosition(binX1, binX2,
+        return addNormalizedBlocksToListV9(blockList, binX1, binY1, binX2, binY2, norm, modifier, blockBinCount,
+                v9Depth, blockColumnCount, blockCache, zdKey, chrom1, chrom2, zoom, reader, blockIndex, null);
+    }
+
+    public static List<Block> addNormalizedBlocksToListV9(final List<Block> blockList, int binX1, int binY1, int binX2, int binY2,
+                                                          final NormalizationType norm, BlockModifier modifier,
+                                                          int blockBinCount, V9Depth v9Depth,
+                                                          int blockColumnCount, BlockCache blockCache, String zdKey,
+                                                          Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                                          DatasetReader reader, BlockIndices blockIndex,
+                                                          ContactFilter filter) {
+        return addNormalizedBlocksToListV9(blockList, binX1, binY1, binX2, binY2, norm, modifier, blockBinCount,
+                v9Depth, blockColumnCount, blockCache, zdKey, chrom1, chrom2, zoom, reader, blockIndex, filter, null);
+    }
+
+    public static List<Block> addNormalizedBlocksToListV9(final List<Block> blockList, int binX1, int binY1, int binX2, int binY2,
+                                                          final NormalizationType norm, BlockModifier modifier,
+                                                          int blockBinCount, V9Depth v9Depth,
+                                                          int blockColumnCount, BlockCache blockCache, String zdKey,
+                                                          Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                                          DatasetReader reader, BlockIndices blockIndex,
+                                                          ContactFilter filter, QueryToken token) {
+        int[] blockNumbersToLoad = getBlockNumbersForRegionFromBinPosition(binX1, binX2,
                 binY1, binY2, blockBinCount, blockColumnCount, v9Depth);
 
-        Set<Integer> blocksToLoad = new HashSet<>();
+        List<Integer> blocksToLoad = new ArrayList<>();
 
         populateBlocksToLoadV9(blockNumbersToLoad, norm, blockList, blocksToLoad,
-                blockCache, zdKey);
+                blockCache, zdKey, filter);
 
-        BlockLoader.actuallyLoadGivenBlocks(blockList, new ArrayList<>(blocksToLoad), norm, modifier, zdKey,
-                chrom1, chrom2, zoom, blockCache, reader, blockIndex);
+        BlockLoader.actuallyLoadGivenBlocks(blockList, blocksToLoad, norm, modifier, zdKey,
+                chrom1, chrom2, zoom, blockCache, reader, blockIndex, filter, token);
 
         return blockList;
     }
 
 
-    protected static void populateBlocksToLoadV9(List<Integer> blockNumbers, NormalizationType no,
-                                                 List<Block> blockList, Set<Integer> blocksToLoad,
-                                                 BlockCache blockCache, String zdKey) {
-        //int blockNumber = getBlockNumberVersion9FromPADAndDepth(positionAlongDiagonal, depth, blockColumnCount);
+    protected static void populateBlocksToLoadV9(int[] blockNumbers, NormalizationType no,
+                                                 List<Block> blockList, List<Integer> blocksToLoad,
+                                                 BlockCache blockCache, String zdKey, ContactFilter filter) {
+        BlockSummaryIndex summaries = blockCache.getBlockSummariesIfPresent(no);
         for (int blockNumber : blockNumbers) {
+            if (summaries != null && summaries.canSkip(blockNumber, filter)) continue;
             String key = BlockLoader.getBlockKey(zdKey, blockNumber, no);
             Block b;
             if (blockCache.containsKey(key)) {
                 b = blockCache.get(key);
-                blockList.add(b);
+                blockList.add(filter == null ? b : filter.filter(b, key));
             } else {
                 blocksToLoad.add(blockNumber);
             }
@@ -56,37 +80,71 @@ public class V9IntraBlockReader {
         return depth * blockColumnCount + positionAlongDiagonal;
     }
 
-    public static List<Integer> getBlockNumbersForRegionFromBinPosition(long[] regionBinIndices, int blockBinCount,
-                                                                        int blockColumnCount, V9Depth v9Depth) {
+    public static int[] getBlockNumbersForRegionFromBinPosition(long[] regionBinIndices, int blockBinCount,
+                                                                int blockColumnCount, V9Depth v9Depth) {
         return getBlockNumbersForRegionFromBinPosition(regionBinIndices[0], regionBinIndices[1],
                 regionBinIndices[2], regionBinIndices[3],
                 blockBinCount, blockColumnCount, v9Depth);
     }
 
-    private static List<Integer> getBlockNumbersForRegionFromBinPosition(long binX1, long binX2,
-                                                                         long binY1, long binY2,
-                                                                         int blockBinCount, int blockColumnCount,
-                                                                         V9Depth v9Depth) {
-        Set<Integer> blocksSet = new HashSet<>();
-
-        int translatedLowerPAD = (int) ((binX1 + binY1) / 2 / blockBinCount);
-        int translatedHigherPAD = (int) ((binX2 + binY2) / 2 / blockBinCount + 1);
-        int translatedNearerDepth = v9Depth.getDepth(binX1, binY2);
-        int translatedFurtherDepth = v9Depth.getDepth(binX2, binY1);
-
-        // because code above assume above diagonal; but we could be below diagonal
-        int nearerDepth = Math.min(translatedNearerDepth, translatedFurtherDepth);
-        if ((binX1 > binY2 && binX2 < binY1) || (binX2 > binY1 && binX1 < binY2)) {
-            nearerDepth = 0;
+    /**
+     * Exact block planner for v9 intra-chromosomal maps.
+     * A block (pad, depth) holds the cells with (x + y) / 2 / blockBinCount == pad and
+     * v9Depth.getDepth(x, y) == depth; only blocks with at least one such cell inside
+     * the (inclusive) query rectangle, or its transpose, are returned.
+     *
+     * @return sorted, distinct block numbers
+     */
+    public static int[] getBlockNumbersForRegionFromBinPosition(long binX1, long binX2,
+                                                                long binY1, long binY2,
+                                                                int blockBinCount, int blockColumnCount,
+                                                                V9Depth v9Depth) {
+        long minDistance;
+        if (binX2 < binY1) {
+            minDistance = binY1 - binX2;
+        } else if (binY2 < binX1) {
+            minDistance = binX1 - binY2;
+        } else {
+            minDistance = 0; // region crosses the diagonal
         }
-        int furtherDepth = Math.max(translatedNearerDepth, translatedFurtherDepth) + 1; // +1; integer divide rounds down
+        long maxDistance = Math.max(Math.abs(binX2 - binY1), Math.abs(binY2 - binX1));
+
+        int lowerPAD = (int) ((binX1 + binY1) / 2 / blockBinCount);
+        int higherPAD = (int) ((binX2 + binY2) / 2 / blockBinCount);
+        int nearerDepth = v9Depth.getDepth(0L, minDistance);
+        int furtherDepth = v9Depth.getDepth(0L, maxDistance);
+
+        int[] blockNumbers = new int[(furtherDepth - nearerDepth + 1) * (higherPAD - lowerPAD + 1)];
+        int numBlocks = 0;
 
         for (int depth = nearerDepth; depth <= furtherDepth; depth++) {
-            for (int pad = translatedLowerPAD; pad <= translatedHigherPAD; pad++) {
-                blocksSet.add(getBlockNumberVersion9FromPADAndDepth(pad, depth, blockColumnCount));
+            long distLow = v9Depth.getMinDistanceForDepth(depth);
+            long distHigh = Math.min(v9Depth.getMinDistanceForDepth(depth + 1) - 1, maxDistance);
+            for (int pad = lowerPAD; pad <= higherPAD; pad++) {
+                long sumLow = 2L * pad * blockBinCount;
+                long sumHigh = sumLow + 2L * blockBinCount - 1;
+                if (containsCell(binX1, binX2, binY1, binY2, sumLow, sumHigh, distLow, distHigh)
+                        || containsCell(binX1, binX2, binY1, binY2, sumLow, sumHigh, -distHigh, -distLow)) {
+                    blockNumbers[numBlocks++] = getBlockNumberVersion9FromPADAndDepth(pad, depth, blockColumnCount);
+                }
             }
         }
 
-        return new ArrayList<>(blocksSet);
+        blockNumbers = Arrays.copyOf(blockNumbers, numBlocks);
+        Arrays.sort(blockNumbers);
+        return blockNumbers;
+    }
+
+    /**
+     * @return true if some integer cell with x in [x1, x2], y in [y1, y2] also has
+     * x + y in [sumLow, sumHigh] and x - y in [diffLow, diffHigh]
+     */
+    private static boolean containsCell(long x1, long x2, long y1, long y2,
+                                        long sumLow, long sumHigh, long diffLow, long diffHigh) {
+        long lowestX = Math.max(Math.max(x1, y1 + diffLow),
+                Math.max(sumLow - y2, -Math.floorDiv(-(sumLow + diffLow), 2)));
+        long highestX = Math.min(Math.min(x2, y2 + diffHigh),
+                Math.min(sumHigh - y1, Math.floorDiv(sumHigh + diffHigh, 2)));
+        return lowestX <= highestX;
     }
 }
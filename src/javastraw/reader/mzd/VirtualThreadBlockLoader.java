@@ -0,0 +1,118 @@
+package javastraw.reader.mzd;
+
+import javastraw.StrawGlobals;
+import javastraw.reader.DatasetReader;
+import javastraw.reader.ReaderTools;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.block.Block;
+import javastraw.reader.block.BlockIndices;
+import javastraw.reader.block.BlockModifier;
+import javastraw.reader.block.ContactFilter;
+import javastraw.reader.block.IndexEntry;
+import javastraw.reader.block.QueryToken;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads blocks with one virtual thread per fetch, for high-latency (remote / network) storage.
+ * <p>
+ * Concurrency is bounded by the IOConcurrencyController of the storage and by permits on in-flight
+ * compressed bytes (in KB), shared by all loads, rather than by a thread count. A fetch holds its byte
+ * permits until its block is decoded; inflating and decoding run on the shared CPU pool.
+ */
+class VirtualThreadBlockLoader {
+
+    private static final int maxKBPermits = (int) Math.max(Math.min(StrawGlobals.maxInFlightBlockBytes / 1024,
+            Integer.MAX_VALUE), 1);
+    private static final Semaphore kbPermits = new Semaphore(maxKBPermits);
+
+    static boolean isAvailable() {
+        return StrawGlobals.useVirtualThreadsForIO && ParallelizationTools.getVirtualThreadExecutor() != null;
+    }
+
+    static void loadBlocks(List<Block> globalBlockList, List<Integer> blockIds, NormalizationType no,
+                           BlockModifier modifier, String zdKey, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                           DatasetReader reader, BlockIndices blockIndex,
+                           ContactFilter filter, QueryToken token) {
+        ExecutorService virtualThreads = ParallelizationTools.getVirtualThreadExecutor();
+        AtomicInteger errorCounter = new AtomicInteger();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        List<CompletableFuture<Block>> futures = new ArrayList<>(blockIds.size());
+
+        for (int blockNumber : blockIds) {
+            IndexEntry idx = blockIndex.getBlock(blockNumber);
+            int kb = idx == null ? 1 : Math.min(idx.size / 1024 + 1, maxKBPermits);
+            String key = BlockLoader.getBlockKey(zdKey, blockNumber, no);
+
+            CompletableFuture<Block> future = CompletableFuture.supplyAsync(() -> {
+                if (token != null && token.shouldStop()) {
+                    throw new CancellationException("Block " + blockNumber + " skipped");
+                }
+                BlockLoader.acquirePermits(kbPermits, kb, token);
+                try {
+                    return idx == null ? null : ReaderTools.readBlockBytes(idx, reader.getPath(), token);
+                } catch (IOException e) {
+                    release(kb);
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    release(kb);
+                    throw e;
+                }
+            }, virtualThreads).thenApplyAsync(compressedBytes -> {
+                try {
+                    Block b = reader.decodeNormalizedBlock(blockNumber, zdKey, no,
+                            chrom1.getIndex(), chrom2.getIndex(), zoom, compressedBytes, filter);
+                    if (b == null) {
+                        b = new Block(blockNumber, key);
+                    }
+                    return modifier.modify(b, key, zoom.getBinSize(), chrom1, chrom2);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    release(kb);
+                }
+            }, ParallelizationTools.getCPUExecutor());
+            futures.add(future);
+        }
+
+        List<Block> loadedBlocks = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                Block b = futures.get(i).get();
+                loadedBlocks.add(b);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    token.addSkippedBlocks(1);
+                } else {
+                    BlockLoader.recordError(errorCounter, firstError, e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                BlockLoader.recordError(errorCounter, firstError, e);
+            }
+        }
+
+        globalBlockList.addAll(loadedBlocks);
+        if (errorCounter.get() > 0) {
+            throw BlockLoader.loadFailure(errorCounter.get() + " errors while loading blocks for " + zdKey,
+                    firstError.get());
+        }
+    }
+
+    private static void release(int kb) {
+        kbPermits.release(kb);
+    }
+}
@@ -25,6 +25,7 @@
 package javastraw.tools;
 
 import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactFilter;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.expected.ExpectedValueFunction;
 import javastraw.reader.mzd.MatrixZoomData;
@@ -104,52 +105,18 @@ public class ExtractingOEDataUtils {
                                                   boolean isIntra, boolean fillUnderDiagonal, ExpectedValueFunction df,
                                                   int chrIndex, float pseudocount, ThresholdType thresholdType,
                                                   double threshold, float invalidReplacement) throws IOException {
-        List<Block> blocks = HiCFileTools.getAllRegionBlocks(zd, binXStart, binXEnd, binYStart, binYEnd,
-                normalizationType, fillUnderDiagonal);
+        ContactFilter filter = new ContactFilter(binXStart, binYStart, binXEnd, binYEnd, fillUnderDiagonal);
+        List<Block> blocks = HiCFileTools.getAllRegionBlocks(zd, filter, normalizationType);
         List<ContactRecord> records = new ArrayList<>();
 
         for (Block b : blocks) {
             if (b != null) {
                 for (ContactRecord rec : b.getContactRecords()) {
+                    // blocks are whole, so records outside the region are skipped here
+                    if (!filter.acceptsPosition(rec.getBinX(), rec.getBinY())) continue;
                     double expected = getExpected(rec, df, chrIndex, isIntra, zd.getAverageCount());
-                    double val = rec.getCounts();
-
-                    double observed = val + pseudocount;
-                    expected = expected + pseudocount;
-                    double answer = Double.NaN;
-
-                    if (thresholdType.equals(ThresholdType.LOG_BASE_EXP_OF_OBS)) {
-
-                        answer = (Math.log(observed) / Math.log(expected));
-
-                    } else if (thresholdType.equals(ThresholdType.TRUE_OE_LOG)
-                            || thresholdType.equals(ThresholdType.LOG_OE_BOUNDED)
-                            || thresholdType.equals(ThresholdType.LOG_OE_BOUNDED_SCALED_BTWN_ZERO_ONE)) {
-
-                        answer = Math.log(observed / expected);
-                        if (thresholdType.equals(ThresholdType.LOG_OE_BOUNDED)) {
-                            answer = Math.min(Math.max(-threshold, answer), threshold);
-                        } else if (thresholdType.equals(ThresholdType.LOG_OE_BOUNDED_SCALED_BTWN_ZERO_ONE)) {
-                            answer = Math.min(Math.max(-threshold, answer), threshold);
-                            answer = (answer + threshold) / (2 * threshold);
-                        }
-                    } else if (thresholdType.equals(ThresholdType.TRUE_OE)
-                            || thresholdType.equals(ThresholdType.TRUE_OE_LINEAR)) {
-                        answer = observed / expected;
-                        if (thresholdType.equals(ThresholdType.TRUE_OE_LINEAR)) {
-                            if (answer < 1) {
-                                answer = 1 - 1 / answer;
-                            } else {
-                                answer -= 1;
-                            }
-                        }
-                    }
-
-                    float floatAnswer = (float) answer;
-                    if (Float.isNaN(floatAnswer) || Float.isInfinite(floatAnswer)) {
-                        floatAnswer = invalidReplacement;
-                    }
-
+                    float floatAnswer = getOEValue(rec.getCounts(), expected, pseudocount, thresholdType,
+                            threshold, invalidReplacement);
                     records.add(new ContactRecord(rec.getBinX(), rec.getBinY(), floatAnswer));
 
                 }
@@ -159,8 +126,51 @@ public class ExtractingOEDataUtils {
         return records;
     }
 
-    private static double getExpected(ContactRecord rec, ExpectedValueFunction df, int chrIndex,
-                                      boolean isIntra, double averageCount) {
+    /**
+     * Observed value transformed against its expected value as set by the threshold type
+     */
+    public static float getOEValue(double val, double expected, float pseudocount, ThresholdType thresholdType,
+                                   double threshold, float invalidReplacement) {
+        double observed = val + pseudocount;
+        expected = expected + pseudocount;
+        double answer = Double.NaN;
+
+        if (thresholdType.equals(ThresholdType.LOG_BASE_EXP_OF_OBS)) {
+
+            answer = (Math.log(observed) / Math.log(expected));
+
+        } else if (thresholdType.equals(ThresholdType.TRUE_OE_LOG)
+                || thresholdType.equals(ThresholdType.LOG_OE_BOUNDED)
+                || thresholdType.equals(ThresholdType.LOG_OE_BOUNDED_SCALED_BTWN_ZERO_ONE)) {
+
+            answer = Math.log(observed / expected);
+            if (thresholdType.equals(ThresholdType.LOG_OE_BOUNDED)) {
+                answer = Math.min(Math.max(-threshold, answer), threshold);
+            } else if (thresholdType.equals(ThresholdType.LOG_OE_BOUNDED_SCALED_BTWN_ZERO_ONE)) {
+                answer = Math.min(Math.max(-threshold, answer), threshold);
+                answer = (answer + threshold) / (2 * threshold);
+            }
+        } else if (thresholdType.equals(ThresholdType.TRUE_OE)
+                || thresholdType.equals(ThresholdType.TRUE_OE_LINEAR)) {
+            answer = observed / expected;
+            if (thresholdType.equals(ThresholdType.TRUE_OE_LINEAR)) {
+                if (answer < 1) {
+                    answer = 1 - 1 / answer;
+                } else {
+                    answer -= 1;
+                }
+            }
+        }
+
+        float floatAnswer = (float) answer;
+        if (Float.isNaN(floatAnswer) || Float.isInfinite(floatAnswer)) {
+            floatAnswer = invalidReplacement;
+        }
+        return floatAnswer;
+    }
+
+    public static double getExpected(ContactRecord rec, ExpectedValueFunction df, int chrIndex,
+                                     boolean isIntra, double averageCount) {
         int x = rec.getBinX();
         int y = rec.getBinY();
         double expected;
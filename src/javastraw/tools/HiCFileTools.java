@@ -25,6 +25,7 @@
 package javastraw.tools;
 
 import javastraw.StrawGlobals;
+import javastraw.feature2D.Feature2D;
 import javastraw.reader.Dataset;
 import javastraw.reader.DatasetReader;
 import javastraw.reader.DatasetReaderFactory;
@@ -32,9 +33,12 @@ import javastraw.reader.DatasetReaderV2;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactFilter;
 import javastraw.reader.block.ContactRecord;
+import javastraw.reader.datastructures.FloatArrayPool;
 import javastraw.reader.datastructures.ListOfDoubleArrays;
 import javastraw.reader.expected.ExpectedValueFunction;
+import javastraw.reader.iterators.RowStripIterator;
 import javastraw.reader.mzd.Matrix;
 import javastraw.reader.mzd.MatrixZoomData;
 import javastraw.reader.type.HiCZoom;
@@ -43,7 +47,9 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.nio.FloatBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by muhammadsaadshamim on 5/12/15.
@@ -245,7 +251,8 @@ public class HiCFileTools {
 
         // numRows/numCols is just to ensure a set size in case bounds are approximate
         // left upper corner is reference for 0,0
-        List<Block> blocks = getAllRegionBlocks(zd, binXStart, binXEnd, binYStart, binYEnd, normalizationType, fillUnderDiagonal);
+        List<Block> blocks = getAllRegionBlocks(zd, getBoundedRegionFilter(binXStart, binXEnd, binYStart, binYEnd,
+                numRows, numCols, fillUnderDiagonal), normalizationType);
 
         RealMatrix data = MatrixTools.cleanArray2DMatrix(numRows, numCols);
 
@@ -291,7 +298,8 @@ public class HiCFileTools {
 
         // numRows/numCols is just to ensure a set size in case bounds are approximate
         // left upper corner is reference for 0,0
-        List<Block> blocks = getAllRegionBlocks(zd, binXStart, binXEnd, binYStart, binYEnd, normalizationType, fillUnderDiagonal);
+        List<Block> blocks = getAllRegionBlocks(zd, getBoundedRegionFilter(binXStart, binXEnd, binYStart, binYEnd,
+                numRows, numCols, fillUnderDiagonal), normalizationType);
 
         float[][] data = new float[numRows][numCols];
 
@@ -312,6 +320,40 @@ public class HiCFileTools {
         return data;
     }
 
+    /**
+     * Dense numRows x numCols tile in row-major order: entry (i, j) is bin (binXStart + i, binYStart + j).
+     * The array comes from the pool (if given) and can be handed back to it once the caller is done.
+     */
+    public static float[] extractLocalBoundedRegionTile(MatrixZoomData zd, long binXStart, long binYStart,
+                                                        int numRows, int numCols, NormalizationType normalizationType,
+                                                        boolean fillUnderDiagonal, FloatArrayPool pool) throws IOException {
+        float[] tile = pool == null ? new float[numRows * numCols] : pool.acquire(numRows * numCols);
+        extractLocalBoundedRegionTile(zd, binXStart, binYStart, numRows, numCols, normalizationType,
+                fillUnderDiagonal, FloatBuffer.wrap(tile), 0);
+        return tile;
+    }
+
+    /**
+     * Writes the tile into a caller-supplied buffer (heap or direct), starting at offset
+     */
+    public static void extractLocalBoundedRegionTile(MatrixZoomData zd, long binXStart, long binYStart,
+                                                     int numRows, int numCols, NormalizationType normalizationType,
+                                                     boolean fillUnderDiagonal, FloatBuffer out, int offset) throws IOException {
+        try {
+            zd.fillNormalizedTile(binXStart, binYStart, numRows, numCols, normalizationType, fillUnderDiagonal,
+                    out, offset);
+        } catch (Exception e) {
+            triggerNormError(normalizationType);
+
+            System.err.println("You do not have " + normalizationType + " normalized maps available for this resolution/region:");
+            System.err.println("x1 " + binXStart + " y1 " + binYStart + " rows " + numRows + " cols " + numCols +
+                    " res " + zd.getBinSize());
+            System.err.println("Map is likely too sparse or a different normalization/resolution should be chosen.");
+            e.printStackTrace();
+            System.exit(38);
+        }
+    }
+
     public static void fillInMatrixWithRecords(int binXStart, int binYStart, int numRows, int numCols,
                                                boolean fillUnderDiagonal, float[][] data, ContactRecord rec) {
         int relativeX = rec.getBinX() - binXStart;
@@ -436,6 +478,41 @@ public class HiCFileTools {
         return blocks;
     }
 
+    /**
+     * Region query returning only the records that pass the filter (rectangle, and any count,
+     * distance or mask predicates)
+     */
+    public static List<Block> getAllRegionBlocks(MatrixZoomData zd, ContactFilter filter,
+                                                 NormalizationType normalizationType) throws IOException {
+
+        List<Block> blocks = new ArrayList<>();
+
+        try {
+            blocks.addAll(zd.getNormalizedBlocksOverlapping(filter, normalizationType));
+        } catch (Exception e) {
+            triggerNormError(normalizationType);
+
+            System.err.println("You do not have " + normalizationType + " normalized maps available for this resolution/region:");
+            System.err.println("x1 " + filter.getBinX1() + " x2 " + filter.getBinX2() + " y1 " + filter.getBinY1() +
+                    " y2 " + filter.getBinY2() + " res " + zd.getBinSize());
+            System.err.println("Map is likely too sparse or a different normalization/resolution should be chosen.");
+            e.printStackTrace();
+            System.exit(38);
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Filter selecting the blocks of the numRows x numCols output
+     */
+    public static ContactFilter getBoundedRegionFilter(long binXStart, long binXEnd, long binYStart, long binYEnd,
+                                                       int numRows, int numCols, boolean fillUnderDiagonal) {
+        return new ContactFilter(binXStart, binYStart,
+                Math.min(binXEnd, binXStart + numRows - 1), Math.min(binYEnd, binYStart + numCols - 1),
+                fillUnderDiagonal);
+    }
+
     public static RealMatrix extractLocalBoundedExpectedRegion(ExpectedValueFunction df, Chromosome chr, int binXStart,
                                                                int binYStart, int numRows, int numCols) {
 
@@ -529,6 +606,47 @@ public class HiCFileTools {
                 .replace("://www.dropbox.com", "://dl.dropboxusercontent.com");
     }
 
+    /**
+     * Value of the pixel at the center of each feature (e.g. loops of one chromosome pair of a Feature2DList),
+     * aligned with the list
+     */
+    public static float[] getValuesAtFeatureCenters(MatrixZoomData zd, List<Feature2D> features,
+                                                    NormalizationType norm) {
+        int[] binXs = new int[features.size()];
+        int[] binYs = new int[features.size()];
+        for (int i = 0; i < features.size(); i++) {
+            Feature2D feature = features.get(i);
+            binXs[i] = (int) (feature.getMidPt1() / zd.getBinSize());
+            binYs[i] = (int) (feature.getMidPt2() / zd.getBinSize());
+        }
+        return zd.getValues(binXs, binYs, norm);
+    }
+
+    /**
+     * Virtual 4C across the genome: the profile of the anchor bins [anchorStart, anchorEnd] of anchorChr
+     * against every chromosome, in the order of getChromosomeArrayWithoutAllByAll (zeros where there is no map).
+     * The chromosome pairs are queried in parallel.
+     */
+    public static float[][] getGenomeWideViewpointProfile(Dataset ds, Chromosome anchorChr, long anchorStart,
+                                                          long anchorEnd, HiCZoom zoom, NormalizationType norm) {
+        Chromosome[] chromosomes = ds.getChromosomeHandler().getChromosomeArrayWithoutAllByAll();
+        float[][] profiles = new float[chromosomes.length][];
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedIO(Math.min(chromosomes.length, StrawGlobals.ioParallelism), () -> {
+            int i = index.getAndIncrement();
+            while (i < chromosomes.length) {
+                MatrixZoomData zd = getMatrixZoomData(ds, anchorChr, chromosomes[i], zoom);
+                if (zd == null) {
+                    profiles[i] = new float[(int) (chromosomes[i].getLength() / zoom.getBinSize() + 1)];
+                } else {
+                    profiles[i] = zd.getViewpointProfile(anchorChr, anchorStart, anchorEnd, norm);
+                }
+                i = index.getAndIncrement();
+            }
+        });
+        return profiles;
+    }
+
     public static MatrixZoomData getMatrixZoomData(Dataset ds, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom) {
         Matrix matrix = ds.getMatrix(chrom1, chrom2);
         if (matrix == null || zoom == null) return null;
@@ -553,6 +671,26 @@ public class HiCFileTools {
 
     }
 
+    /**
+     * Same values as getOEMatrixForChromosome, handed over in strips of stripHeight rows so that the
+     * whole maxBin x maxBin matrix is never held in memory
+     */
+    public static RowStripIterator getOEStripsForChromosome(Dataset ds, MatrixZoomData zd, Chromosome chromosome,
+                                                            int resolution, NormalizationType norm, double logThreshold,
+                                                            ExtractingOEDataUtils.ThresholdType thresholdType,
+                                                            boolean isIntra, boolean fillUnderDiagonal, float pseudocount,
+                                                            float invalidReplacement, boolean getCorrectedVersion,
+                                                            int stripHeight) {
+
+        ExpectedValueFunction df = ds.getExpectedValuesOrExit(zd.getZoom(), norm, true, getCorrectedVersion);
+
+        int maxBin = (int) (chromosome.getLength() / resolution + 1);
+
+        return new RowStripIterator(zd, norm, 0, maxBin - 1, 0, maxBin - 1, stripHeight, fillUnderDiagonal)
+                .setObservedOverExpected(df, chromosome.getIndex(), isIntra, thresholdType, logThreshold,
+                        pseudocount, invalidReplacement);
+    }
+
     public static float[][] getOEMatrixForChromosome(Dataset ds, MatrixZoomData zd, Chromosome chromosome,
                                                      int resolution, NormalizationType norm, double logThreshold,
                                                      ExtractingOEDataUtils.ThresholdType thresholdType,
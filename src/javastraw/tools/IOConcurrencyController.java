@@ -0,0 +1,334 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package javastraw.tools;
+
+import javastraw.StrawGlobals;
+import javastraw.reader.block.QueryToken;
+import javastraw.reader.block.ReadPriority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD limit on concurrent block reads, one controller per storage backend (URL host, or local files).
+ * <p>
+ * Latencies are scaled down for large reads and tracked as two moving averages (gradient style): a
+ * short-term one over the last few reads and a long-term baseline over about a hundred. While the
+ * short-term latency stays within LATENCY_TOLERANCE times the baseline, every successful read counts
+ * towards an additive increase: the limit grows by one after limit such reads, i.e. about once per
+ * round trip. A failed read, or short-term latency above that, means queueing and cuts the limit by
+ * multiplicative decrease, at most once per round trip so that a burst of slow replies does not
+ * collapse it. As the baseline follows the latency of the storage, a mix of fast (cached) and slow
+ * reads does not hold the limit down. The limit stays within
+ * StrawGlobals.minIOConcurrency and StrawGlobals.maxIOConcurrency.
+ * <p>
+ * Reads waiting for a slot are admitted by priority class (see ReadPriority), and give up once their
+ * QueryToken is cancelled or expires. Waiting uses a ReentrantLock rather than a monitor, so that
+ * virtual threads parked here do not pin their carrier.
+ */
+public class IOConcurrencyController {
+
+    private static final Map<String, IOConcurrencyController> controllers = new ConcurrentHashMap<>();
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double EWMA_WEIGHT = 0.1;
+    private static final double SHORT_TERM_WEIGHT = 0.2;
+    private static final double LONG_TERM_WEIGHT = 0.02;
+    private static final double REFERENCE_READ_BYTES = 256 * 1024;
+    // cancel does not signal, so waiting reads look at their token this often
+    private static final long CANCEL_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String backend;
+    private final int minLimit, maxLimit;
+    private final long startTime = System.nanoTime();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int limit;
+    private int inFlight = 0;
+    private int successesSinceIncrease = 0;
+    private int completionsSinceDecrease = 0;
+    private long completed = 0, failed = 0, totalBytes = 0;
+    private double averageLatencyNanos = 0;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private double shortTermLatency = 0, longTermLatency = 0;
+    private final int[] waiting = new int[ReadPriority.values().length];
+    private final long[] admitted = new long[ReadPriority.values().length];
+    private final double[] virtualTime = new double[ReadPriority.values().length];
+
+    public IOConcurrencyController(String backend, int minLimit, int initialLimit, int maxLimit) {
+        this.backend = backend;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    }
+
+    public static IOConcurrencyController getController(String path) {
+        return controllers.computeIfAbsent(getBackend(path), backend -> new IOConcurrencyController(backend,
+                StrawGlobals.minIOConcurrency, StrawGlobals.initialIOConcurrency, StrawGlobals.maxIOConcurrency));
+    }
+
+    public static List<IOConcurrencyController> getAllControllers() {
+        return new ArrayList<>(controllers.values());
+    }
+
+    /**
+     * @return scheme and host for URLs (e.g. https://bucket.host), "local" for everything else
+     */
+    public static String getBackend(String path) {
+        int schemeEnd = path.indexOf("://");
+        if (schemeEnd < 0) return "local";
+        int hostEnd = path.indexOf('/', schemeEnd + 3);
+        return hostEnd < 0 ? path : path.substring(0, hostEnd);
+    }
+
+    /**
+     * Blocks until a read may start; every acquire must be followed by release
+     */
+    public void acquire() {
+        acquire(ReadPriority.NORMAL);
+    }
+
+    /**
+     * Between INTERACTIVE and NORMAL, the next free slot goes to the class with the lowest virtual time,
+     * which advances by 1 / weight per admitted read (weighted fair queuing); BACKGROUND reads get a slot
+     * only while no other class is waiting
+     */
+    public void acquire(ReadPriority priority) {
+        acquire(priority, null);
+    }
+
+    /**
+     * As acquire(priority), but gives up when the token (if not null) is cancelled or expires
+     *
+     * @return false if no slot was taken, in which case release must not be called
+     */
+    public boolean acquire(ReadPriority priority, QueryToken token) {
+        lock.lock();
+        try {
+            int p = priority.ordinal();
+            if (waiting[p] == 0) {
+                // a class that was idle does not get to catch up on the time it was not using
+                virtualTime[p] = Math.max(virtualTime[p], getMinActiveVirtualTime());
+            }
+            waiting[p]++;
+            boolean admit = false;
+            try {
+                while (inFlight >= limit || !isNextClass(p)) {
+                    if (token == null) {
+                        changed.awaitUninterruptibly();
+                    } else if (token.shouldStop()) {
+                        return false;
+                    } else {
+                        try {
+                            changed.awaitNanos(Math.min(token.getRemainingNanos(), CANCEL_POLL_NANOS));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                }
+                admit = true;
+            } finally {
+                waiting[p]--;
+                if (!admit) changed.signalAll(); // this class may have been next
+            }
+            inFlight++;
+            admitted[p]++;
+            virtualTime[p] += 1.0 / priority.getWeight();
+            changed.signalAll(); // another class may be next now
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double getMinActiveVirtualTime() {
+        double min = Double.MAX_VALUE;
+        for (int q = 0; q < waiting.length; q++) {
+            if (waiting[q] > 0) min = Math.min(min, virtualTime[q]);
+        }
+        return min == Double.MAX_VALUE ? 0 : min;
+    }
+
+    private boolean isNextClass(int p) {
+        for (int q = 0; q < waiting.length; q++) {
+            if (q == p || waiting[q] == 0) continue;
+            if (p == ReadPriority.BACKGROUND.ordinal()) return false; // spare capacity only
+            if (q == ReadPriority.BACKGROUND.ordinal()) continue;
+            if (virtualTime[q] < virtualTime[p] || (virtualTime[q] == virtualTime[p] && q < p)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param latencyNanos time from the start of the read until it finished
+     * @param numBytes     bytes read
+     * @param success      false if the read failed
+     */
+    public void release(long latencyNanos, long numBytes, boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (success) {
+                completed++;
+                totalBytes += numBytes;
+                averageLatencyNanos = averageLatencyNanos == 0 ? latencyNanos
+                        : (1 - EWMA_WEIGHT) * averageLatencyNanos + EWMA_WEIGHT * latencyNanos;
+                minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+            } else {
+                failed++;
+            }
+
+            // large (multi-block) reads are allowed proportionally more time
+            double scaledLatency = latencyNanos / (1.0 + (double) numBytes / REFERENCE_READ_BYTES);
+            if (success) {
+                shortTermLatency = shortTermLatency == 0 ? scaledLatency
+                        : (1 - SHORT_TERM_WEIGHT) * shortTermLatency + SHORT_TERM_WEIGHT * scaledLatency;
+                longTermLatency = longTermLatency == 0 ? scaledLatency
+                        : (1 - LONG_TERM_WEIGHT) * longTermLatency + LONG_TERM_WEIGHT * scaledLatency;
+            }
+
+            if (!success || shortTermLatency > LATENCY_TOLERANCE * longTermLatency) {
+                // only once all reads started under the previous limit have come back
+                if (completionsSinceDecrease >= 0) {
+                    int oldLimit = limit;
+                    limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+                    completionsSinceDecrease = -oldLimit;
+                }
+                successesSinceIncrease = 0;
+            } else if (++successesSinceIncrease >= limit) {
+                limit = Math.min(limit + 1, maxLimit);
+                successesSinceIncrease = 0;
+            }
+            completionsSinceDecrease++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getAverageLatencyMillis() {
+        lock.lock();
+        try {
+            return averageLatencyNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getMinLatencyMillis() {
+        lock.lock();
+        try {
+            return minLatencyNanos == Long.MAX_VALUE ? 0 : minLatencyNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getThroughputBytesPerSecond() {
+        lock.lock();
+        try {
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            return seconds > 0 ? totalBytes / seconds : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting(ReadPriority priority) {
+        lock.lock();
+        try {
+            return waiting[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmitted(ReadPriority priority) {
+        lock.lock();
+        try {
+            return admitted[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCompleted() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFailed() {
+        lock.lock();
+        try {
+            return failed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return backend + ": limit=" + limit + " inFlight=" + inFlight + " completed=" + completed
+                    + " failed=" + failed + " avgLatencyMs=" + String.format("%.2f", getAverageLatencyMillis())
+                    + " minLatencyMs=" + String.format("%.2f", getMinLatencyMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -24,32 +24,276 @@
 
 package javastraw.tools;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import javastraw.StrawGlobals;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
+/**
+ * Library-wide execution layer: one shared pool for CPU-bound work and one for I/O-bound work
+ * (block reads), sized by StrawGlobals.cpuParallelism and StrawGlobals.ioParallelism.
+ * Callers block until their tasks finish and get the first failure rethrown.
+ * <p>
+ * Workers that block (e.g. joining a nested load) make a ForkJoinPool start compensating threads; on
+ * Java 9+ each pool is capped at MAX_POOL_SIZE_FACTOR times its parallelism, beyond which blocked
+ * workers just wait. Java 8 has no such cap.
+ * <p>
+ * A task on the I/O pool must not wait for other I/O tasks: once the pool is saturated with such waiters,
+ * nothing is left to run the reads. Code that can run either way (e.g. a block load started from an I/O
+ * fan-out) checks isIOWorker and does its reads on the calling thread instead.
+ */
 public class ParallelizationTools {
 
+    private static final int MAX_POOL_SIZE_FACTOR = 2;
+    private static final PoolMetrics cpuMetrics = new PoolMetrics("cpu");
+    private static final PoolMetrics ioMetrics = new PoolMetrics("io");
+    private static volatile ForkJoinPool cpuPool = null;
+    private static volatile ForkJoinPool ioPool = null;
+    private static volatile boolean virtualThreadsChecked = false;
+    private static ExecutorService virtualThreadExecutor = null;
+
+    public static ForkJoinPool getCPUPool() {
+        if (cpuPool == null) {
+            synchronized (ParallelizationTools.class) {
+                if (cpuPool == null) {
+                    cpuPool = createPool("straw-cpu-", StrawGlobals.cpuParallelism);
+                }
+            }
+        }
+        return cpuPool;
+    }
+
+    public static ForkJoinPool getIOPool() {
+        if (ioPool == null) {
+            synchronized (ParallelizationTools.class) {
+                if (ioPool == null) {
+                    ioPool = createPool("straw-io-", StrawGlobals.ioParallelism);
+                }
+            }
+        }
+        return ioPool;
+    }
+
+    private static ForkJoinPool createPool(String prefix, int parallelism) {
+        int size = Math.max(parallelism, 1);
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(prefix + threadCount.incrementAndGet());
+            return thread;
+        };
+        try {
+            Constructor<ForkJoinPool> constructor = ForkJoinPool.class.getConstructor(int.class,
+                    ForkJoinPool.ForkJoinWorkerThreadFactory.class, Thread.UncaughtExceptionHandler.class,
+                    boolean.class, int.class, int.class, int.class, Predicate.class, long.class, TimeUnit.class);
+            // saturate: once at the maximum size, blocked workers wait instead of failing
+            Predicate<ForkJoinPool> saturate = pool -> true;
+            return constructor.newInstance(size, factory, null, false, size, MAX_POOL_SIZE_FACTOR * size, 1,
+                    saturate, 60L, TimeUnit.SECONDS);
+        } catch (ReflectiveOperationException e) {
+            return new ForkJoinPool(size, factory, null, false);
+        }
+    }
+
+    /**
+     * @return an executor starting one virtual thread per task, or null before Java 21
+     */
+    public static ExecutorService getVirtualThreadExecutor() {
+        if (!virtualThreadsChecked) {
+            synchronized (ParallelizationTools.class) {
+                if (!virtualThreadsChecked) {
+                    try {
+                        Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                        virtualThreadExecutor = (ExecutorService) method.invoke(null);
+                    } catch (ReflectiveOperationException e) {
+                        virtualThreadExecutor = null;
+                    }
+                    virtualThreadsChecked = true;
+                }
+            }
+        }
+        return virtualThreadExecutor;
+    }
+
+    public static PoolMetrics getCPUMetrics() {
+        return cpuMetrics;
+    }
+
+    public static PoolMetrics getIOMetrics() {
+        return ioMetrics;
+    }
+
+    /**
+     * Executors over the shared pools that count tasks in the pool metrics, e.g. for CompletableFuture stages
+     */
+    public static Executor getCPUExecutor() {
+        return command -> getCPUPool().execute(cpuMetrics.wrap(command));
+    }
+
+    public static Executor getIOExecutor() {
+        return command -> getIOPool().execute(ioMetrics.wrap(command));
+    }
+
+    /**
+     * Submits a task to the shared I/O pool, e.g. to read blocks ahead of a consumer
+     */
+    public static <T> Future<T> submitIO(Callable<T> task) {
+        return getIOPool().submit(ioMetrics.wrap(task));
+    }
+
+    /**
+     * @return true if the current thread is a worker of the shared I/O pool
+     */
+    public static boolean isIOWorker() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == ioPool;
+    }
+
     public static void launchParallelizedCode(Runnable runnable) {
-        launchParallelizedCode(Runtime.getRuntime().availableProcessors(), runnable);
+        launchParallelizedCode(StrawGlobals.cpuParallelism, runnable);
     }
 
+    /**
+     * Runs numCPUThreads copies of the runnable (typically workers pulling from a shared index)
+     * on the shared CPU pool and waits for all of them
+     */
     public static void launchParallelizedCode(int numCPUThreads, Runnable runnable) {
-        ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
+        runCopies(getCPUPool(), cpuMetrics, numCPUThreads, runnable);
+    }
+
+    /**
+     * Same as launchParallelizedCode, but runs callerWork on the calling thread while the copies run
+     * (e.g. reads feeding CPU workers); waits for the copies even if callerWork throws
+     */
+    public static void launchParallelizedCode(int numCPUThreads, Runnable runnable, Runnable callerWork) {
+        List<Future<?>> futures = new ArrayList<>(numCPUThreads);
         for (int l = 0; l < numCPUThreads; l++) {
-            Runnable worker = new Runnable() {
-                @Override
-                public void run() {
-                    runnable.run();
+            futures.add(getCPUPool().submit(cpuMetrics.wrap(runnable)));
+        }
+        try {
+            callerWork.run();
+        } finally {
+            joinAll(futures);
+        }
+    }
+
+    /**
+     * Same as launchParallelizedCode, on the shared I/O pool, for workers that mostly wait on reads
+     */
+    public static void launchParallelizedIO(int numIOThreads, Runnable runnable) {
+        runCopies(getIOPool(), ioMetrics, numIOThreads, runnable);
+    }
+
+    /**
+     * Runs every task on the shared CPU pool and waits for all of them
+     */
+    public static void invokeAll(List<Runnable> tasks) {
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(getCPUPool().submit(cpuMetrics.wrap(task)));
+        }
+        joinAll(futures);
+    }
+
+    private static void runCopies(ForkJoinPool pool, PoolMetrics metrics, int numCopies, Runnable runnable) {
+        List<Future<?>> futures = new ArrayList<>(numCopies);
+        for (int l = 0; l < numCopies; l++) {
+            futures.add(pool.submit(metrics.wrap(runnable)));
+        }
+        joinAll(futures);
+    }
+
+    /**
+     * Waits for every future, even after a failure, then rethrows the first failure
+     */
+    private static void joinAll(List<Future<?>> futures) {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new RuntimeException("Interrupted while waiting for tasks", e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    public static class PoolMetrics {
+        private final String name;
+        private final AtomicLong submitted = new AtomicLong(0);
+        private final AtomicLong completed = new AtomicLong(0);
+        private final AtomicLong failed = new AtomicLong(0);
+        private final AtomicLong busyNanos = new AtomicLong(0);
+
+        PoolMetrics(String name) {
+            this.name = name;
+        }
+
+        Runnable wrap(Runnable task) {
+            submitted.incrementAndGet();
+            return () -> {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                    completed.incrementAndGet();
+                } catch (RuntimeException | Error e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
                 }
             };
-            executor.execute(worker);
         }
-        executor.shutdown();
 
-        // Wait until all threads finish
-        while (!executor.isTerminated()) {
+        <T> Callable<T> wrap(Callable<T> task) {
+            submitted.incrementAndGet();
+            return () -> {
+                long start = System.nanoTime();
+                try {
+                    T result = task.call();
+                    completed.incrementAndGet();
+                    return result;
+                } catch (Exception | Error e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                }
+            };
+        }
+
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getBusyMillis() {
+            return busyNanos.get() / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return name + " pool: submitted=" + getSubmitted() + " completed=" + getCompleted()
+                    + " failed=" + getFailed() + " busyMs=" + getBusyMillis();
         }
     }
 
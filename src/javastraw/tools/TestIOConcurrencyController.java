@@ -0,0 +1,106 @@
+package javastraw.tools;
+
+import javastraw.reader.block.QueryToken;
+import javastraw.reader.block.ReadPriority;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Feeds simulated read latencies to an IOConcurrencyController and checks how its limit moves.
+ * Exits with status 1 on failure.
+ */
+public class TestIOConcurrencyController {
+
+    private static final long MS = 1000000;
+    private static final int INITIAL_LIMIT = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int failures = 0;
+
+        // a few page-cache hits, then steady 5 ms reads with an occasional hit
+        IOConcurrencyController controller = newController();
+        for (int i = 0; i < 3; i++) read(controller, MS / 20, true);
+        int lowest = controller.getLimit();
+        for (int i = 0; i < 2000; i++) {
+            read(controller, i % 20 == 0 ? MS / 20 : 5 * MS, true);
+            lowest = Math.min(lowest, controller.getLimit());
+        }
+        failures += check(controller.getLimit() > INITIAL_LIMIT,
+                "limit should recover under steady latency, ends at " + controller.getLimit()
+                        + " (lowest " + lowest + ")");
+
+        // steady latency lets the limit grow
+        controller = newController();
+        for (int i = 0; i < 500; i++) read(controller, 5 * MS, true);
+        int steadyLimit = controller.getLimit();
+        failures += check(steadyLimit > INITIAL_LIMIT, "limit should grow under steady latency, is " + steadyLimit);
+
+        // queueing: latency jumps tenfold and stays there
+        for (int i = 0; i < 20; i++) read(controller, 50 * MS, true);
+        failures += check(controller.getLimit() < steadyLimit,
+                "limit should drop when latency rises, " + steadyLimit + " -> " + controller.getLimit());
+
+        // failures cut the limit
+        controller = newController();
+        for (int i = 0; i < 4; i++) read(controller, 5 * MS, false);
+        failures += check(controller.getLimit() < INITIAL_LIMIT,
+                "limit should drop after failures, is " + controller.getLimit());
+
+        // a read waiting for a slot gives up when its token is cancelled or expires
+        IOConcurrencyController single = new IOConcurrencyController("test", 1, 1, 1);
+        single.acquire();
+        QueryToken token = new QueryToken();
+        AtomicBoolean admitted = new AtomicBoolean(true);
+        Thread waiter = new Thread(() -> admitted.set(single.acquire(ReadPriority.NORMAL, token)));
+        waiter.start();
+        Thread.sleep(50);
+        token.cancel();
+        waiter.join(5000);
+        failures += check(!waiter.isAlive() && !admitted.get(), "cancelled read should stop waiting");
+        failures += check(!single.acquire(ReadPriority.NORMAL, QueryToken.withTimeout(50, TimeUnit.MILLISECONDS)),
+                "expired read should stop waiting");
+        failures += check(single.getWaiting(ReadPriority.NORMAL) == 0 && single.getInFlight() == 1,
+                "abandoned waits should leave no trace, " + single);
+
+        // background reads wait while a normal read is queued, then take the spare slot
+        IOConcurrencyController shared = new IOConcurrencyController("test", 1, 1, 1);
+        shared.acquire(ReadPriority.INTERACTIVE);
+        Thread background = new Thread(() -> shared.acquire(ReadPriority.BACKGROUND));
+        background.start();
+        Thread.sleep(50);
+        Thread normal = new Thread(() -> shared.acquire(ReadPriority.NORMAL));
+        normal.start();
+        Thread.sleep(50);
+        shared.release(5 * MS, 4096, true);
+        normal.join(5000);
+        failures += check(shared.getAdmitted(ReadPriority.NORMAL) == 1
+                        && shared.getAdmitted(ReadPriority.BACKGROUND) == 0,
+                "normal read should go before an earlier background read, " + shared);
+        shared.release(5 * MS, 4096, true);
+        background.join(5000);
+        failures += check(shared.getAdmitted(ReadPriority.BACKGROUND) == 1,
+                "background read should get the slot once nothing else waits, " + shared);
+
+        if (failures > 0) {
+            System.err.println(failures + " IOConcurrencyController checks failed");
+            System.exit(1);
+        }
+        System.out.println("IOConcurrencyController checks passed");
+    }
+
+    private static IOConcurrencyController newController() {
+        return new IOConcurrencyController("test", 1, INITIAL_LIMIT, 64);
+    }
+
+    private static void read(IOConcurrencyController controller, long latencyNanos, boolean success) {
+        controller.acquire();
+        controller.release(latencyNanos, 4096, success);
+    }
+
+    private static int check(boolean condition, String message) {
+        if (condition) return 0;
+        System.err.println(message);
+        return 1;
+    }
+}